@@ -0,0 +1,163 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores 10k weather rows the old way, with an insert per row, then as ContentValues and as a
+ * WeatherBatch through the provider's compiled statements, and logs how long each took. The
+ * times are only logged, since they depend on the device.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final int ROW_COUNT = 10000;
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private long locationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testInsertTenThousandRows() {
+        // Each timing includes building the rows, which is where the batch saves the boxing.
+        long startNs = System.nanoTime();
+        ContentValues[] values = createValues();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                db.insert(WeatherEntry.TABLE_NAME, null, value);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long insertNs = System.nanoTime() - startNs;
+        dbHelper.close();
+        assertEquals(ROW_COUNT, countWeather());
+        deleteWeather();
+
+        startNs = System.nanoTime();
+        values = createValues();
+        int stored = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        long valuesNs = System.nanoTime() - startNs;
+        assertEquals(ROW_COUNT, stored);
+        assertEquals(ROW_COUNT, countWeather());
+        deleteWeather();
+
+        startNs = System.nanoTime();
+        WeatherBatch batch = createBatch();
+        Bundle counts = upsert(batch);
+        long batchNs = System.nanoTime() - startNs;
+        assertEquals(ROW_COUNT, counts.getInt(WeatherEntry.EXTRA_INSERTED));
+        validateWeather(values);
+
+        // The same rows again only read and compare what is stored.
+        startNs = System.nanoTime();
+        counts = upsert(createBatch());
+        long unchangedNs = System.nanoTime() - startNs;
+        assertEquals(ROW_COUNT, counts.getInt(WeatherEntry.EXTRA_UNCHANGED));
+
+        Log.d(LOG_TAG, String.format(Locale.US, "%d rows: insert per row %dms, "
+                        + "ContentValues %dms, WeatherBatch %dms, unchanged WeatherBatch %dms",
+                ROW_COUNT, TimeUnit.NANOSECONDS.toMillis(insertNs),
+                TimeUnit.NANOSECONDS.toMillis(valuesNs), TimeUnit.NANOSECONDS.toMillis(batchNs),
+                TimeUnit.NANOSECONDS.toMillis(unchangedNs)));
+    }
+
+    private ContentValues[] createValues() {
+        ContentValues[] values = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2 + 0.01 * (i % 100));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3 - 0.01 * (i % 100));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0 + i % 20);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65.0 - i % 20);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5 + 0.2 * (i % 100));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    private WeatherBatch createBatch() {
+        WeatherBatch batch = new WeatherBatch(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            batch.add(locationRowId, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, "Asteroids",
+                    321, 65.0 - i % 20, 75.0 + i % 20, 1.2 + 0.01 * (i % 100),
+                    1.3 - 0.01 * (i % 100), 5.5 + 0.2 * (i % 100), 1.1);
+        }
+        return batch;
+    }
+
+    private Bundle upsert(WeatherBatch batch) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherEntry.EXTRA_BATCH, batch);
+        Bundle counts = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_UPSERT, null, extras);
+        assertNotNull(counts);
+        return counts;
+    }
+
+    /**
+     * Checks that the stored rows are the given ones.
+     */
+    private void validateWeather(ContentValues[] values) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(values.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < values.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("Error validating WeatherEntry " + i, cursor,
+                    values[i]);
+        }
+        cursor.close();
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private void deleteAllRecords() {
+        deleteWeather();
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts how many times the observers of the forecast, and the loaders behind them, hear of a
+ * sync or a batch of operations.
+ */
+public class TestChangeNotifications extends AndroidTestCase {
+
+    // How long to wait for notifications that should not come.
+    private static final long QUIET_MS = 500;
+
+    private static final Uri FORECAST_URI =
+            WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+    private long locationRowId;
+    private CountingObserver weatherObserver;
+    private CountingObserver locationObserver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(locationRowId));
+
+        // Registered the way a cursor of the forecast list registers.
+        weatherObserver = new CountingObserver();
+        mContext.getContentResolver().registerContentObserver(FORECAST_URI, true,
+                weatherObserver);
+        locationObserver = new CountingObserver();
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true,
+                locationObserver);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        weatherObserver.quit();
+        locationObserver.quit();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testSyncNotifiesOnce() {
+        sync();
+
+        weatherObserver.assertChanges(1);
+    }
+
+    public void testApplyBatchNotifiesEachUriOnce() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "elsewhere");
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(locationValues).build());
+        for (ContentValues weatherValues : createChangedWeatherValues()) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues).build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+
+        assertEquals(operations.size(),
+                mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                        operations).length);
+
+        weatherObserver.assertChanges(1);
+        locationObserver.assertChanges(1);
+    }
+
+    public void testFailedBatchChangesNothing() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI).build());
+        // Fails, as the weather needs a location.
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValue(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Error: The batch did not fail");
+        } catch (OperationApplicationException | RuntimeException expected) {
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: The delete of the failed batch was not rolled back",
+                TestProvider.createBulkInsertWeatherValues(locationRowId).length,
+                cursor.getCount());
+        cursor.close();
+        weatherObserver.assertChanges(0);
+    }
+
+    public void testLoaderReloadsOncePerSync() throws Exception {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CursorLoader[] loader = new CursorLoader[1];
+        final CountDownLatch started = new CountDownLatch(1);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // The loader observes the content from the main thread, like in a fragment.
+                loader[0] = new CursorLoader(mContext, FORECAST_URI, null, null, null,
+                        WeatherEntry.COLUMN_DATE + " ASC");
+                loader[0].registerListener(0, new Loader.OnLoadCompleteListener<Cursor>() {
+                    @Override
+                    public void onLoadComplete(Loader<Cursor> loader, Cursor data) {
+                        loadCount.incrementAndGet();
+                    }
+                });
+                loader[0].startLoading();
+                started.countDown();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        waitForCount(loadCount, 1);
+
+        sync();
+        waitForCount(loadCount, 2);
+        Thread.sleep(QUIET_MS);
+        assertEquals("Error: The forecast was loaded again more than once for a sync",
+                2, loadCount.get());
+
+        final CountDownLatch stopped = new CountDownLatch(1);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loader[0].reset();
+                stopped.countDown();
+            }
+        });
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Stores a forecast the way the sync does, which changes every day and deletes the first.
+     */
+    private void sync() {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, createChangedWeatherValues());
+        extras.putLong(WeatherEntry.EXTRA_DELETE_UNTIL, TestUtilities.TEST_DATE);
+        Bundle counts = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_UPSERT, null, extras);
+        assertNotNull(counts);
+        assertTrue(counts.getInt(WeatherEntry.EXTRA_UPDATED) > 0);
+    }
+
+    private ContentValues[] createChangedWeatherValues() {
+        ContentValues[] values = TestProvider.createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues weatherValues : values) {
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        }
+        return values;
+    }
+
+    private static void waitForCount(final AtomicInteger count, final int expected) {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return count.get() >= expected;
+            }
+        }.run();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Counts the changes it hears of, on a thread of its own.
+     */
+    private static class CountingObserver extends ContentObserver {
+        final HandlerThread mHT;
+        final AtomicInteger mChangeCount = new AtomicInteger();
+
+        CountingObserver() {
+            this(startThread());
+        }
+
+        private CountingObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        private static HandlerThread startThread() {
+            HandlerThread ht = new HandlerThread("CountingObserverThread");
+            ht.start();
+            return ht;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mChangeCount.incrementAndGet();
+        }
+
+        /**
+         * Waits for the changes, and a while longer for any more.
+         */
+        void assertChanges(int expected) {
+            if (expected > 0) {
+                waitForCount(mChangeCount, expected);
+            }
+            try {
+                Thread.sleep(QUIET_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertEquals("Error: Wrong number of notifications", expected, mChangeCount.get());
+        }
+
+        void quit() {
+            mHT.quit();
+        }
+    }
+}
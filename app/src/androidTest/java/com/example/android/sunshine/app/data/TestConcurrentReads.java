@@ -0,0 +1,238 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads the forecast the way the list, the detail view, both widgets and Muzei do, each on its own
+ * thread, while another thread keeps syncing, first with the rollback journal and then with the
+ * write-ahead log, and logs the percentiles of how long the reads took. Both go through a
+ * provider of their own, the writer with the upsert a sync runs.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 20;
+    private static final int DAY_COUNT = 14;
+    private static final int READS_PER_READER = 200;
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String PREFERRED_LOCATION = "location-0";
+    // Normalized, as the provider stores it.
+    private static final long START_DATE = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+    /**
+     * A query of a screen, with the rows it expects.
+     */
+    private static final class Reader {
+        final String name;
+        final Uri uri;
+        final String[] projection;
+        final int rowCount;
+
+        Reader(String name, Uri uri, String[] projection, int rowCount) {
+            this.name = name;
+            this.uri = uri;
+            this.projection = projection;
+            this.rowCount = rowCount;
+        }
+    }
+
+    private static final Reader[] READERS = {
+            new Reader("list",
+                    WeatherEntry.buildWeatherLocationWithStartDate(PREFERRED_LOCATION, START_DATE),
+                    new String[]{WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                            WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC,
+                            WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP,
+                            LocationEntry.COLUMN_LOCATION_SETTING, WeatherEntry.COLUMN_WEATHER_ID,
+                            LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG},
+                    DAY_COUNT),
+            new Reader("detail",
+                    WeatherEntry.buildWeatherLocationWithDate(PREFERRED_LOCATION, START_DATE),
+                    null, 1),
+            new Reader("today widget",
+                    WeatherEntry.buildWeatherLocationWithStartDate(PREFERRED_LOCATION, START_DATE),
+                    new String[]{WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_SHORT_DESC,
+                            WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP},
+                    DAY_COUNT),
+            new Reader("detail widget",
+                    WeatherEntry.buildWeatherLocationWithStartDate(PREFERRED_LOCATION, START_DATE),
+                    new String[]{WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                            WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_SHORT_DESC,
+                            WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP,
+                            WeatherEntry.COLUMN_DATE},
+                    DAY_COUNT),
+            new Reader("muzei",
+                    WeatherEntry.buildWeatherLocationWithStartDate(PREFERRED_LOCATION, START_DATE),
+                    new String[]{WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_SHORT_DESC},
+                    DAY_COUNT)
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testReadsWhileSyncing() throws Exception {
+        long[] rollbackNs = readWhileSyncing(false);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        long[] walNs = readWhileSyncing(true);
+
+        Log.d(LOG_TAG, "Rollback journal: " + percentiles(rollbackNs));
+        Log.d(LOG_TAG, "Write-ahead log: " + percentiles(walNs));
+    }
+
+    public void testDatabaseUsesWriteAheadLog() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase(Locale.US));
+        cursor.close();
+
+        // Nothing to copy back, but it has to run.
+        dbHelper.checkpoint();
+        dbHelper.close();
+    }
+
+    /**
+     * Runs the readers against a writer that syncs all the locations over and over, and returns
+     * how long each read took, sorted.
+     */
+    private long[] readWhileSyncing(boolean writeAheadLogging) throws Exception {
+        final WeatherProvider provider = new WeatherProvider();
+        provider.attachInfo(mContext, null);
+        provider.getOpenHelper().setWriteAheadLoggingEnabled(writeAheadLogging);
+        assertEquals(writeAheadLogging,
+                provider.getOpenHelper().getWritableDatabase().isWriteAheadLoggingEnabled());
+        final long[] locationIds = new long[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "location-" + i);
+            locationIds[i] = ContentUris.parseId(
+                    provider.insert(LocationEntry.CONTENT_URI, locationValues));
+        }
+        sync(provider, locationIds, 0);
+
+        final AtomicBoolean reading = new AtomicBoolean(true);
+        final AtomicInteger syncCount = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (reading.get()) {
+                        sync(provider, locationIds, syncCount.incrementAndGet());
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            }
+        });
+
+        final long[] readNs = new long[READERS.length * READS_PER_READER];
+        final CountDownLatch done = new CountDownLatch(READERS.length);
+        writer.start();
+        for (int r = 0; r < READERS.length; r++) {
+            final Reader reader = READERS[r];
+            final int offset = r * READS_PER_READER;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < READS_PER_READER; i++) {
+                            long startNs = System.nanoTime();
+                            Cursor cursor = provider.query(reader.uri, reader.projection, null,
+                                    null, WeatherEntry.COLUMN_DATE + " ASC");
+                            // The rows are only read once counted.
+                            int rowCount = cursor.getCount();
+                            cursor.close();
+                            readNs[offset + i] = System.nanoTime() - startNs;
+                            if (rowCount != reader.rowCount) {
+                                throw new AssertionError("The " + reader.name + " read "
+                                        + rowCount + " rows");
+                            }
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        assertTrue("Error: The readers did not finish", done.await(2, TimeUnit.MINUTES));
+        reading.set(false);
+        writer.join();
+        provider.shutdown();
+
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertTrue("Error: Nothing was synced while reading", syncCount.get() > 0);
+        Log.d(LOG_TAG, (writeAheadLogging ? "Write-ahead log: " : "Rollback journal: ")
+                + syncCount.get() + " syncs while reading");
+        Arrays.sort(readNs);
+        return readNs;
+    }
+
+    /**
+     * Stores a changed forecast of every location with the upsert a sync runs, which writes it
+     * and deletes the days before it in one transaction.
+     */
+    private static void sync(WeatherProvider provider, long[] locationIds, int syncNumber) {
+        WeatherBatch batch = new WeatherBatch(locationIds.length * DAY_COUNT);
+        for (long locationId : locationIds) {
+            for (int day = 0; day < DAY_COUNT; day++) {
+                batch.add(locationId, START_DATE + day * DAY_IN_MILLIS, "Asteroids", 321,
+                        65, 75 + syncNumber % 10, 1.2, 1.3, 5.5, 1.1);
+            }
+        }
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherEntry.EXTRA_BATCH, batch);
+        extras.putLong(WeatherEntry.EXTRA_DELETE_UNTIL, START_DATE - DAY_IN_MILLIS);
+        Bundle counts = provider.call(WeatherEntry.METHOD_UPSERT, null, extras);
+        if (counts == null) {
+            throw new AssertionError("The upsert answered nothing");
+        }
+    }
+
+    private static String percentiles(long[] sortedNs) {
+        return String.format(Locale.US, "p50=%dus p90=%dus p99=%dus max=%dus",
+                TimeUnit.NANOSECONDS.toMicros(percentile(sortedNs, 50)),
+                TimeUnit.NANOSECONDS.toMicros(percentile(sortedNs, 90)),
+                TimeUnit.NANOSECONDS.toMicros(percentile(sortedNs, 99)),
+                TimeUnit.NANOSECONDS.toMicros(sortedNs[sortedNs.length - 1]));
+    }
+
+    private static long percentile(long[] sortedNs, int percent) {
+        return sortedNs[Math.min(sortedNs.length - 1, sortedNs.length * percent / 100)];
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the database of each version the app shipped, with a forecast in it, and upgrades it
+ * to the current one.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbUpgrade.class.getSimpleName();
+
+    private static final int DAY_COUNT = 14;
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // The schemas as each version created them, which must not change with the code.
+    private static final String[] VERSION_2_SCHEMA = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,"
+                    + "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, "
+                    + "coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "location_id INTEGER NOT NULL, date INTEGER NOT NULL, "
+                    + "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                    + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                    + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  "
+                    + "FOREIGN KEY (location_id) REFERENCES location (_id),  "
+                    + "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    private static final Map<Integer, String[]> SCHEMAS = new HashMap<>();
+
+    static {
+        SCHEMAS.put(2, VERSION_2_SCHEMA);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testMigrationsCoverEveryVersion() {
+        assertEquals(WeatherDbHelper.DATABASE_VERSION - WeatherDbHelper.OLDEST_MIGRATED_VERSION,
+                WeatherDbHelper.MIGRATIONS.length);
+        for (int version = WeatherDbHelper.OLDEST_MIGRATED_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            assertTrue("Error: No fixture schema for version " + version,
+                    SCHEMAS.containsKey(version));
+        }
+    }
+
+    public void testUpgradeKeepsTheForecast() {
+        String currentSchema = readSchema(createCurrentDatabase());
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        for (int version = WeatherDbHelper.OLDEST_MIGRATED_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            createDatabase(version, SCHEMAS.get(version));
+
+            long startNs = System.nanoTime();
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            Log.d(LOG_TAG, "Upgraded version " + version + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs) + "ms");
+
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: Version " + version + " was not upgraded to the schema of a "
+                    + "new database", currentSchema, readSchema(db));
+            validateForecast(db);
+            dbHelper.close();
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        }
+    }
+
+    public void testOlderVersionsAreCreatedAgain() {
+        createDatabase(WeatherDbHelper.OLDEST_MIGRATED_VERSION - 1, VERSION_2_SCHEMA);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    public void testMissingMigrationFails() {
+        SQLiteDatabase db = createCurrentDatabase();
+        try {
+            WeatherDbHelper.migrate(db, WeatherDbHelper.DATABASE_VERSION,
+                    WeatherDbHelper.DATABASE_VERSION + 1, WeatherDbHelper.MIGRATIONS);
+            fail("Error: Upgrading to a version without a migration did not fail");
+        } catch (IllegalStateException expected) {
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testCopyTableRenamesAColumn() {
+        SQLiteDatabase db = createCurrentDatabase();
+        long locationRowId = insertLocation(db);
+
+        WeatherDbHelper.copyTable(db, LocationEntry.TABLE_NAME,
+                "_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL, "
+                        + "name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL",
+                new String[]{"_id", "location_setting", "name", "coord_lat", "coord_long"},
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING,
+                        LocationEntry.COLUMN_CITY_NAME, LocationEntry.COLUMN_COORD_LAT,
+                        LocationEntry.COLUMN_COORD_LONG});
+
+        ContentValues expected = TestUtilities.createNorthPoleLocationValues();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(locationRowId, cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        assertEquals(expected.getAsString(LocationEntry.COLUMN_CITY_NAME),
+                cursor.getString(cursor.getColumnIndex("name")));
+        assertEquals(-1, cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME));
+        cursor.close();
+        db.close();
+    }
+
+    private SQLiteDatabase createCurrentDatabase() {
+        return new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    /**
+     * Creates the database of a version, with a location and its forecast.
+     */
+    private void createDatabase(int version, String[] schema) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        for (String sql : schema) {
+            db.execSQL(sql);
+        }
+        long locationRowId = insertLocation(db);
+        for (int i = 0; i < DAY_COUNT; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        }
+        db.setVersion(version);
+        db.close();
+    }
+
+    private static long insertLocation(SQLiteDatabase db) {
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+        return locationRowId;
+    }
+
+    private static void validateForecast(SQLiteDatabase db) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: The forecast was not kept", DAY_COUNT, cursor.getCount());
+        cursor.moveToFirst();
+        ContentValues expected = TestUtilities.createWeatherValues(
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY)));
+        TestUtilities.validateCurrentRecord("Error: The forecast was changed", cursor, expected);
+        cursor.close();
+
+        cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: The location was changed", cursor,
+                TestUtilities.createNorthPoleLocationValues());
+        cursor.close();
+    }
+
+    /**
+     * Returns the tables and indexes of the database, by name.
+     */
+    private static String readSchema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master "
+                + "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata' "
+                + "ORDER BY type, name", null);
+        StringBuilder schema = new StringBuilder();
+        while (cursor.moveToNext()) {
+            schema.append(cursor.getString(0)).append(' ').append(cursor.getString(1))
+                    .append(" on ").append(cursor.getString(2)).append('\n');
+        }
+        cursor.close();
+        return schema.toString();
+    }
+}
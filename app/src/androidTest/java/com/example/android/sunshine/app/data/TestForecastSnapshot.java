@@ -0,0 +1,124 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private static final int DAY_COUNT = 7;
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private long locationRowId;
+    // Yesterday, which the forecast starts on, as a sync that did not delete it yet leaves it.
+    private long firstDate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        firstDate = WeatherContract.normalizeDate(System.currentTimeMillis() - DAY_IN_MILLIS);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createWeatherValues());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testSecondReadIsAHit() {
+        long misses = ForecastSnapshot.getMissCount();
+        long hits = ForecastSnapshot.getHitCount();
+
+        ForecastSnapshot forecast = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        assertEquals(misses + 1, ForecastSnapshot.getMissCount());
+        assertEquals(DAY_COUNT, forecast.getDayCount());
+        assertEquals(TestUtilities.TEST_LOCATION, forecast.getLocationSetting());
+        assertEquals(64.7488, forecast.getCoordLat());
+        assertEquals(-147.353, forecast.getCoordLong());
+
+        assertSame("Error: The forecast was loaded again though nothing changed", forecast,
+                ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION));
+        assertEquals(hits + 1, ForecastSnapshot.getHitCount());
+        assertEquals(misses + 1, ForecastSnapshot.getMissCount());
+    }
+
+    public void testCommitLoadsItAgain() {
+        ForecastSnapshot forecast = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+
+        ContentValues[] values = createWeatherValues();
+        values[1].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        long misses = ForecastSnapshot.getMissCount();
+        ForecastSnapshot changed = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        assertNotSame(forecast, changed);
+        assertEquals(misses + 1, ForecastSnapshot.getMissCount());
+        assertEquals("Meteors", changed.getShortDescription(1));
+        assertEquals("Asteroids", forecast.getShortDescription(1));
+    }
+
+    public void testUnchangedSyncKeepsIt() {
+        ForecastSnapshot forecast = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+
+        // Nothing changes, so nothing is committed.
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createWeatherValues());
+
+        assertSame(forecast, ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    public void testOtherLocationIsAMiss() {
+        ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+
+        long misses = ForecastSnapshot.getMissCount();
+        ForecastSnapshot forecast = ForecastSnapshot.get(mContext, "elsewhere");
+        assertEquals(misses + 1, ForecastSnapshot.getMissCount());
+        assertEquals(0, forecast.getDayCount());
+    }
+
+    public void testDays() {
+        ForecastSnapshot forecast = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        long now = System.currentTimeMillis();
+
+        assertEquals(firstDate, forecast.getDate(0));
+        assertEquals("Error: Yesterday was not skipped", 1, forecast.getFirstDay(now));
+        assertEquals(1, forecast.indexOfDate(now));
+        assertEquals(3, forecast.indexOfDate(now + 2 * DAY_IN_MILLIS));
+        assertEquals(-1, forecast.indexOfDate(now + DAY_COUNT * DAY_IN_MILLIS));
+        assertEquals(DAY_COUNT, forecast.getFirstDay(now + DAY_COUNT * DAY_IN_MILLIS));
+
+        ContentValues expected = createWeatherValues()[2];
+        assertEquals(expected.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                forecast.getWeatherId(2));
+        assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), forecast.getMaxTemp(2));
+        assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), forecast.getMinTemp(2));
+        assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_HUMIDITY), forecast.getHumidity(2));
+        assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_PRESSURE), forecast.getPressure(2));
+        assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                forecast.getWindSpeed(2));
+        assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_DEGREES), forecast.getDegrees(2));
+    }
+
+    private ContentValues[] createWeatherValues() {
+        ContentValues[] values = new ContentValues[DAY_COUNT];
+        for (int i = 0; i < DAY_COUNT; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, firstDate + i * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0 + i);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65.0 - i);
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
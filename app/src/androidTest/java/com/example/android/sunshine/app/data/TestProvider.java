@@ -24,12 +24,15 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.Arrays;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +515,110 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testBulkInsertOnlyRewritesChangedRows() throws InterruptedException {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        Bundle counts = upsert(createBulkInsertWeatherValues(locationRowId));
+        assertUpsertCounts(counts, BULK_INSERT_RECORDS_TO_INSERT, 0, 0);
+        long[] ids = queryWeatherIds();
+
+        // The same forecast again: nothing is written, and nobody is told.
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        counts = upsert(createBulkInsertWeatherValues(locationRowId));
+        assertUpsertCounts(counts, 0, 0, BULK_INSERT_RECORDS_TO_INSERT);
+        Thread.sleep(500);
+        assertFalse("Error: An unchanged forecast notified its observers",
+                weatherObserver.mContentChanged);
+        assertTrue("Error: Unchanged rows were rewritten",
+                Arrays.equals(ids, queryWeatherIds()));
+
+        // One day changed and one more day: only those are written.
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        values[2].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        ContentValues newDay = new ContentValues(values[values.length - 1]);
+        newDay.put(WeatherEntry.COLUMN_DATE, values[values.length - 1].getAsLong(
+                WeatherEntry.COLUMN_DATE) + 1000 * 60 * 60 * 24);
+        values = Arrays.copyOf(values, values.length + 1);
+        values[values.length - 1] = newDay;
+        counts = upsert(values);
+        assertUpsertCounts(counts, 1, 1, BULK_INSERT_RECORDS_TO_INSERT - 1);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        long[] newIds = queryWeatherIds();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, newIds.length);
+        assertTrue("Error: The updated row got a new id",
+                Arrays.equals(ids, Arrays.copyOf(newIds, ids.length)));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        cursor.moveToFirst();
+        for (int i = 0; i < values.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testBulkInsertOnlyRewritesChangedRows. Error validating WeatherEntry " + i,
+                    cursor, values[i]);
+        }
+        cursor.close();
+    }
+
+    public void testUpsertLeavesTheCallersBatchAlone() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        // Past midnight, so the provider has a date to normalize.
+        long date = WeatherContract.normalizeDate(System.currentTimeMillis()) + 1000 * 60 * 60;
+        WeatherBatch batch = new WeatherBatch(1);
+        batch.add(locationRowId, date, "Asteroids", 321, 65, 75, 1.2, 1.3, 5.5, 1.1);
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherEntry.EXTRA_BATCH, batch);
+        // Made in process, so the provider gets this very batch rather than a parceled copy.
+        Bundle counts = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_UPSERT, null, extras);
+        assertUpsertCounts(counts, 1, 0, 0);
+        assertEquals("Error: The provider changed the caller's batch", date, batch.dates[0]);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(WeatherContract.normalizeDate(date), cursor.getLong(0));
+        cursor.close();
+    }
+
+    private Bundle upsert(ContentValues[] values) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, values);
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_UPSERT, null, extras);
+    }
+
+    private static void assertUpsertCounts(Bundle counts, int inserted, int updated,
+                                           int unchanged) {
+        assertNotNull(counts);
+        assertEquals("Error: Wrong number of inserted rows",
+                inserted, counts.getInt(WeatherEntry.EXTRA_INSERTED));
+        assertEquals("Error: Wrong number of updated rows",
+                updated, counts.getInt(WeatherEntry.EXTRA_UPDATED));
+        assertEquals("Error: Wrong number of unchanged rows",
+                unchanged, counts.getInt(WeatherEntry.EXTRA_UNCHANGED));
+    }
+
+    private long[] queryWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
@@ -0,0 +1,151 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on what the provider runs for each of the URIs the app queries, and
+ * on what it runs to store a sync, with the projections and selections the app uses, and fails
+ * if a table is scanned whole instead of searched.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String LOCATION_QUERY = "London, UK";
+
+    // The forecast list, which reads the weather columns from the index alone.
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private SQLiteDatabase db;
+    // The URI matches checked so far, to tell that each of the provider's was.
+    private final Set<Integer> checkedMatches = new HashSet<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        db = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testNoUriScansATable() {
+        long date = TestUtilities.TEST_DATE;
+
+        // The forecast list, the widgets and Muzei.
+        String plan = assertNoScan(
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION_QUERY, date),
+                FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue("Error: The forecast list does not read the weather from its index: " + plan,
+                plan.contains("COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+        assertFalse("Error: The forecast list is sorted after it is read: " + plan,
+                plan.contains("TEMP B-TREE"));
+
+        plan = assertNoScan(WeatherEntry.buildWeatherLocation(LOCATION_QUERY),
+                null, null, null, null);
+        assertTrue(plan, plan.contains(WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+
+        // The detail view and the notification, a single day, which the unique index of the
+        // date and location serves as well.
+        assertNoScan(WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, date),
+                null, null, null, null);
+
+        // The location of a location setting, as the sync looks it up.
+        assertNoScan(LocationEntry.CONTENT_URI, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{LOCATION_QUERY},
+                null);
+
+        // The weather URI is only written to, see testSyncDoesNotScanATable().
+        Set<Integer> matches = new HashSet<>();
+        matches.add(WeatherProvider.WEATHER_WITH_LOCATION);
+        matches.add(WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        matches.add(WeatherProvider.LOCATION);
+        assertEquals("Error: A URI of the provider was not checked", matches, checkedMatches);
+    }
+
+    public void testSyncDoesNotScanATable() {
+        String[] dateRangeArgs = {"1", Long.toString(TestUtilities.TEST_DATE),
+                Long.toString(TestUtilities.TEST_DATE)};
+
+        // The stored days of a location the upsert compares the forecast with, both as a batch
+        // and as values.
+        String plan = assertNoScan(SQLiteQueryBuilder.buildQueryString(false,
+                WeatherEntry.TABLE_NAME, WeatherProvider.sStoredWeatherProjection,
+                WeatherProvider.sLocationIdAndDateRangeSelection, null, null, null, null),
+                dateRangeArgs);
+        assertTrue(plan, plan.contains(WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+        plan = assertNoScan(SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                null, WeatherProvider.sLocationIdAndDateRangeSelection, null, null, null, null),
+                dateRangeArgs);
+        assertTrue(plan, plan.contains(WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+
+        // The days before today the upsert deletes, of every location at once.
+        assertNoScan("DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                        + WeatherProvider.sStaleWeatherSelection,
+                new String[]{Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    /**
+     * Fails if the plan of the query the provider runs for the URI scans a table, and returns
+     * the plan, one step per line.
+     */
+    private String assertNoScan(Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        UriMatcher matcher = WeatherProvider.buildUriMatcher();
+        checkedMatches.add(matcher.match(uri));
+
+        WeatherProvider.QuerySql querySql = WeatherProvider.buildQuerySql(uri, projection,
+                selection, selectionArgs, sortOrder);
+        return assertNoScan(querySql.sql, querySql.selectionArgs);
+    }
+
+    /**
+     * Fails if the plan of a statement scans a table, and returns the plan, one step per line.
+     */
+    private String assertNoScan(String sql, String[] selectionArgs) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.d(LOG_TAG, sql + "\n" + plan);
+
+        assertTrue("Error: No plan for " + sql, plan.length() > 0);
+        for (String step : plan.toString().split("\n")) {
+            // A scan reads the whole table, or the whole of one of its indexes.
+            assertFalse("Error: " + sql + " scans a table: " + step, step.startsWith("SCAN"));
+        }
+        return plan.toString();
+    }
+}
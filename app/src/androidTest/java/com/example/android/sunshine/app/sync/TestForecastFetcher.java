@@ -0,0 +1,202 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+
+public class TestForecastFetcher extends AndroidTestCase {
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?q=94043";
+    private static final byte[] FORECAST = ("{\"city\":{\"name\":\"Mountain View\","
+            + "\"coord\":{\"lat\":37.39,\"lon\":-122.08}},\"cod\":\"200\",\"list\":[]}")
+            .getBytes();
+    private static final byte[] NEW_FORECAST = ("{\"city\":{\"name\":\"Mountain View\","
+            + "\"coord\":{\"lat\":37.39,\"lon\":-122.08}},\"cod\":\"200\",\"list\":[{}]}")
+            .getBytes();
+    private static final String LAST_MODIFIED = "Thu, 21 Jul 2016 12:00:00 GMT";
+
+    private StubHttpServer server;
+    private File cacheFile;
+    private ForecastFetcher fetcher;
+    private URL url;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StubHttpServer();
+        cacheFile = new File(mContext.getCacheDir(), ForecastResponseCache.FILE_NAME);
+        ForecastResponseCache cache = new ForecastResponseCache(cacheFile);
+        cache.clear();
+        fetcher = new ForecastFetcher(cache, new SyncHttpClient(
+                SyncHttpClient.DEFAULT_CONNECT_TIMEOUT_MS, SyncHttpClient.DEFAULT_READ_TIMEOUT_MS,
+                SyncHttpClient.DEFAULT_MAX_REQUESTS_PER_HOST));
+        url = new URL(server.getUrl(FORECAST_PATH));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        fetcher.getCache().clear();
+        super.tearDown();
+    }
+
+    public void testFirstFetchDownloadsAndCachesTheBody() throws IOException {
+        server.setResponse(200, FORECAST, "\"v1\"", null);
+
+        assertTrue("Error: The forecast was not stored",
+                Arrays.equals(FORECAST, fetchAndStore()));
+
+        assertEquals(1, server.getRequestCount());
+        assertNull("Error: A validator was sent without a cached response",
+                server.getRequestHeaders(0).get("if-none-match"));
+        assertEquals(FORECAST.length, server.getBodyBytesSent());
+        assertEquals(FORECAST.length, fetcher.getBytesReceived());
+
+        ForecastResponseCache.Entry entry = fetcher.getCache().read();
+        assertNotNull("Error: The response was not cached", entry);
+        assertEquals(url.toString(), entry.url);
+        assertEquals("\"v1\"", entry.eTag);
+        assertNull(entry.lastModified);
+        assertTrue("Error: The cached body does not match the response",
+                Arrays.equals(FORECAST, readCachedBody()));
+    }
+
+    public void testUnchangedForecastIsNotDownloadedAgain() throws IOException {
+        server.setResponse(200, FORECAST, "\"v1\"", null);
+        fetchAndStore();
+
+        ForecastFetcher.Response response = fetcher.fetch(url);
+        try {
+            assertTrue("Error: An unchanged forecast was downloaded again",
+                    response.isNotModified());
+        } finally {
+            response.close();
+        }
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals("\"v1\"", server.getRequestHeaders(1).get("if-none-match"));
+        assertEquals("Error: The second request transferred a body",
+                FORECAST.length, server.getBodyBytesSent());
+        assertEquals(FORECAST.length, fetcher.getBytesReceived());
+    }
+
+    public void testLastModifiedIsSentBack() throws IOException {
+        server.setResponse(200, FORECAST, null, LAST_MODIFIED);
+        fetchAndStore();
+
+        ForecastFetcher.Response response = fetcher.fetch(url);
+        try {
+            assertTrue(response.isNotModified());
+        } finally {
+            response.close();
+        }
+        assertEquals(LAST_MODIFIED, server.getRequestHeaders(1).get("if-modified-since"));
+        assertNull(server.getRequestHeaders(1).get("if-none-match"));
+    }
+
+    public void testChangedForecastReplacesTheCache() throws IOException {
+        server.setResponse(200, FORECAST, "\"v1\"", null);
+        fetchAndStore();
+        server.setResponse(200, NEW_FORECAST, "\"v2\"", null);
+
+        assertTrue(Arrays.equals(NEW_FORECAST, fetchAndStore()));
+
+        assertEquals(FORECAST.length + NEW_FORECAST.length, server.getBodyBytesSent());
+        assertEquals("\"v2\"", fetcher.getCache().read().eTag);
+        assertTrue(Arrays.equals(NEW_FORECAST, readCachedBody()));
+    }
+
+    public void testResponseIsOnlyCachedOnCommit() throws IOException {
+        server.setResponse(200, FORECAST, "\"v1\"", null);
+
+        // As when the forecast could not be parsed or stored.
+        ForecastFetcher.Response response = fetcher.fetch(url);
+        try {
+            assertEquals('{', response.getBody().read());
+        } finally {
+            response.close();
+        }
+        assertNull("Error: A response that was not stored was cached",
+                fetcher.getCache().read());
+        assertFalse(new File(cacheFile.getPath() + ".tmp").exists());
+
+        ForecastFetcher.Response retry = fetcher.fetch(url);
+        try {
+            assertFalse("Error: The retry was conditional", retry.isNotModified());
+        } finally {
+            retry.close();
+        }
+        assertNull(server.getRequestHeaders(1).get("if-none-match"));
+    }
+
+    public void testCacheErrorsDoNotFailTheFetch() throws IOException {
+        // The cache cannot write into a directory that does not exist, like on a full disk.
+        File missingDir = new File(mContext.getCacheDir(), "missing");
+        fetcher = new ForecastFetcher(new ForecastResponseCache(
+                new File(missingDir, ForecastResponseCache.FILE_NAME)), new SyncHttpClient(SyncHttpClient.DEFAULT_CONNECT_TIMEOUT_MS,
+                        SyncHttpClient.DEFAULT_READ_TIMEOUT_MS,
+                        SyncHttpClient.DEFAULT_MAX_REQUESTS_PER_HOST));
+        server.setResponse(200, FORECAST, "\"v1\"", null);
+
+        assertTrue("Error: The forecast was not read without the cache",
+                Arrays.equals(FORECAST, fetchAndStore()));
+        assertNull(fetcher.getCache().read());
+    }
+
+    public void testValidatorsAreOnlySentForTheSameRequest() throws IOException {
+        server.setResponse(200, FORECAST, "\"v1\"", null);
+        fetchAndStore();
+
+        url = new URL(server.getUrl("/data/2.5/forecast/daily?q=10001"));
+        assertTrue(Arrays.equals(FORECAST, fetchAndStore()));
+
+        assertNull("Error: The validators of another location were sent",
+                server.getRequestHeaders(1).get("if-none-match"));
+        assertEquals(2 * FORECAST.length, server.getBodyBytesSent());
+    }
+
+    /**
+     * Fetches the forecast, reads all of its body and commits it, as the sync adapter does once
+     * the forecast is stored.
+     */
+    private byte[] fetchAndStore() throws IOException {
+        ForecastFetcher.Response response = fetcher.fetch(url);
+        try {
+            assertFalse("Error: The forecast was not downloaded", response.isNotModified());
+            byte[] body = readFully(response.getBody());
+            response.commit();
+            return body;
+        } finally {
+            response.close();
+        }
+    }
+
+    private byte[] readCachedBody() throws IOException {
+        InputStream in = fetcher.getCache().openBody();
+        try {
+            return readFully(in);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        assertNotNull(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
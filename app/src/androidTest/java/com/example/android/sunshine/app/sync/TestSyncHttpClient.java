@@ -0,0 +1,209 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSyncHttpClient extends AndroidTestCase {
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?q=94043";
+
+    private StubHttpServer server;
+    private SyncHttpClient client;
+    private URL url;
+    private byte[] forecast;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new StubHttpServer();
+        client = new SyncHttpClient(SyncHttpClient.DEFAULT_CONNECT_TIMEOUT_MS,
+                SyncHttpClient.DEFAULT_READ_TIMEOUT_MS,
+                SyncHttpClient.DEFAULT_MAX_REQUESTS_PER_HOST);
+        url = new URL(server.getUrl(FORECAST_PATH));
+
+        // Repetitive like a real forecast, so that it compresses well.
+        StringBuilder json = new StringBuilder("{\"cod\":\"200\",\"list\":[");
+        for (int i = 0; i < 14; i++) {
+            json.append(i > 0 ? "," : "").append("{\"dt\":").append(1469102400 + i * 86400)
+                    .append(",\"temp\":{\"min\":11.5,\"max\":21.25},\"pressure\":1013.2,")
+                    .append("\"humidity\":72,\"weather\":[{\"id\":800,")
+                    .append("\"description\":\"clear sky\"}],\"speed\":3.1,\"deg\":270}");
+        }
+        forecast = json.append("]}").toString().getBytes("UTF-8");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        super.tearDown();
+    }
+
+    public void testGzipBodyIsDecodedAndMeasured() throws IOException {
+        server.setGzip(true);
+        server.setResponse(200, forecast, null, null);
+
+        SyncHttpClient.Response response = client.get(url);
+        byte[] body;
+        try {
+            assertEquals(200, response.getCode());
+            body = readFully(response.getBody());
+        } finally {
+            response.close();
+        }
+
+        assertTrue("Error: The gzipped body was not decoded", Arrays.equals(forecast, body));
+        assertEquals("gzip, deflate", server.getRequestHeaders(0).get("accept-encoding"));
+        assertEquals(server.getBodyBytesSent(), response.getWireBytes());
+        assertEquals(forecast.length, response.getDecodedBytes());
+        assertTrue("Error: The body was not smaller on the wire",
+                response.getWireBytes() < response.getDecodedBytes());
+        assertTrue(response.getTimeToFirstByteNs() > 0);
+        assertTrue(response.getTotalTimeNs() >= response.getTimeToFirstByteNs());
+
+        assertEquals(1, client.getRequestCount());
+        assertEquals(response.getWireBytes(), client.getWireBytes());
+        assertEquals(forecast.length, client.getDecodedBytes());
+    }
+
+    public void testIdentityBodyIsTheSameOnTheWire() throws IOException {
+        server.setResponse(200, forecast, null, null);
+
+        SyncHttpClient.Response response = client.get(url);
+        try {
+            assertTrue(Arrays.equals(forecast, readFully(response.getBody())));
+        } finally {
+            response.close();
+        }
+        assertEquals(forecast.length, response.getWireBytes());
+        assertEquals(forecast.length, response.getDecodedBytes());
+    }
+
+    public void testConnectionIsReused() throws IOException {
+        server.setKeepAlive(true);
+        server.setGzip(true);
+        server.setResponse(200, forecast, null, null);
+
+        for (int i = 0; i < 3; i++) {
+            SyncHttpClient.Response response = client.get(url);
+            try {
+                // Only partly read: closing the response drains the rest.
+                assertEquals('{', response.getBody().read());
+            } finally {
+                response.close();
+            }
+        }
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals("Error: The connection was not reused", 1, server.getConnectionCount());
+        assertEquals(3 * forecast.length, client.getDecodedBytes());
+    }
+
+    public void testNotModifiedHasAnEmptyBody() throws IOException {
+        server.setGzip(true);
+        server.setResponse(200, forecast, "\"v1\"", null);
+
+        SyncHttpClient.Response response = client.get(url, "If-None-Match", "\"v1\"");
+        try {
+            assertEquals(304, response.getCode());
+            assertEquals(-1, response.getBody().read());
+        } finally {
+            response.close();
+        }
+        assertEquals("\"v1\"", server.getRequestHeaders(0).get("if-none-match"));
+        assertEquals(0, response.getWireBytes());
+    }
+
+    public void testRequestsPerHostAreCapped() throws Exception {
+        final SyncHttpClient cappedClient = new SyncHttpClient(
+                SyncHttpClient.DEFAULT_CONNECT_TIMEOUT_MS,
+                SyncHttpClient.DEFAULT_READ_TIMEOUT_MS, 2);
+        server.setResponse(200, forecast, null, null);
+        server.setDelayMs(50);
+
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cappedClient.get(url).close();
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(threads.length, server.getRequestCount());
+        assertEquals("Error: The requests to the host were not capped",
+                2, server.getMaxConcurrentRequests());
+    }
+
+    public void testReadTimeoutIsApplied() throws IOException {
+        // Accepts connections but never answers.
+        ServerSocket silent = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            client.setTimeouts(SyncHttpClient.DEFAULT_CONNECT_TIMEOUT_MS, 200);
+            long startNs = System.nanoTime();
+            try {
+                client.get(new URL("http://127.0.0.1:" + silent.getLocalPort() + FORECAST_PATH));
+                fail("Error: A server that does not answer did not time out");
+            } catch (SocketTimeoutException e) {
+                // Expected.
+            }
+            assertTrue("Error: The read timeout was not applied",
+                    System.nanoTime() - startNs < 10 * 1000 * 1000 * 1000L);
+        } finally {
+            silent.close();
+        }
+    }
+
+    public void testWaitForTheHostTimesOut() throws IOException {
+        server.setResponse(200, forecast, null, null);
+        SyncHttpClient cappedClient = new SyncHttpClient(200,
+                SyncHttpClient.DEFAULT_READ_TIMEOUT_MS, 1);
+        // Left open, like a load that was abandoned.
+        SyncHttpClient.Response open = cappedClient.get(url);
+        try {
+            cappedClient.get(url);
+            fail("Error: A request waited for the host forever");
+        } catch (SocketTimeoutException e) {
+            // Expected.
+        }
+
+        open.abort();
+        SyncHttpClient.Response next = cappedClient.get(url);
+        try {
+            assertEquals("Error: An aborted response kept its place", 200, next.getCode());
+        } finally {
+            next.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
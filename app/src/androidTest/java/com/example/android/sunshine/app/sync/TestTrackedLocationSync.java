@@ -0,0 +1,141 @@
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestTrackedLocationSync extends AndroidTestCase {
+
+    private static final int LOCATION_COUNT = 60;
+    private static final int DAY_COUNT = 14;
+    private static final int MAX_REQUESTS_PER_HOST = 4;
+
+    private StubHttpServer server;
+    private TrackedLocationSync trackedLocationSync;
+    private Map<String, URL> locations;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        server = new StubHttpServer();
+        trackedLocationSync = new TrackedLocationSync(mContext.getContentResolver(),
+                new SyncHttpClient(SyncHttpClient.DEFAULT_CONNECT_TIMEOUT_MS,
+                        SyncHttpClient.DEFAULT_READ_TIMEOUT_MS, MAX_REQUESTS_PER_HOST),
+                TrackedLocationSync.DEFAULT_THREAD_COUNT * 2);
+
+        locations = new LinkedHashMap<>();
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            locations.put("tracked-" + i,
+                    new URL(server.getUrl("/data/2.5/forecast/daily?lat=" + i + "&lon=" + i)));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testLocationsAreSyncedInParallel() throws Exception {
+        server.setResponse(200, buildForecast(), null, null);
+        // Slow enough for the requests to overlap.
+        server.setDelayMs(20);
+
+        List<TrackedLocationSync.Result> results = trackedLocationSync.start(locations).await();
+
+        assertEquals(LOCATION_COUNT, results.size());
+        int i = 0;
+        for (String locationSetting : locations.keySet()) {
+            TrackedLocationSync.Result result = results.get(i++);
+            assertEquals("Error: The results are not in the order of the locations",
+                    locationSetting, result.locationSetting);
+            assertEquals("Error: " + locationSetting + " was not synced",
+                    SunshineSyncAdapter.LOCATION_STATUS_OK, result.status);
+            assertEquals(DAY_COUNT, result.rowCount);
+            assertTrue("Error: The fetch of " + locationSetting + " was not timed",
+                    result.fetchNs > 0);
+            assertTrue(result.getTotalNs() >= result.fetchNs + result.parseNs);
+            assertEquals("Error: The forecast of " + locationSetting + " was not stored",
+                    DAY_COUNT, countWeather(locationSetting));
+        }
+
+        assertEquals(LOCATION_COUNT, server.getRequestCount());
+        int maxConcurrentRequests = server.getMaxConcurrentRequests();
+        assertTrue("Error: The locations were synced one by one", maxConcurrentRequests > 1);
+        assertTrue("Error: Too many requests went to the host at once: " + maxConcurrentRequests,
+                maxConcurrentRequests <= MAX_REQUESTS_PER_HOST);
+    }
+
+    public void testSyncingAgainReplacesTheForecasts() throws Exception {
+        server.setResponse(200, buildForecast(), null, null);
+
+        trackedLocationSync.start(locations).await();
+        trackedLocationSync.start(locations).await();
+
+        for (String locationSetting : locations.keySet()) {
+            assertEquals(DAY_COUNT, countWeather(locationSetting));
+        }
+    }
+
+    public void testFailuresAreReportedPerLocation() throws Exception {
+        server.setResponse(500, new byte[0], null, null);
+
+        List<TrackedLocationSync.Result> results = trackedLocationSync.start(locations).await();
+
+        assertEquals(LOCATION_COUNT, results.size());
+        for (TrackedLocationSync.Result result : results) {
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, result.status);
+            assertEquals(0, result.rowCount);
+            assertEquals(0, countWeather(result.locationSetting));
+        }
+    }
+
+    public void testUnknownCityIsInvalid() throws Exception {
+        server.setResponse(200, "{\"cod\":\"404\",\"message\":\"city not found\"}".getBytes(),
+                null, null);
+
+        List<TrackedLocationSync.Result> results = trackedLocationSync.start(locations).await();
+
+        for (TrackedLocationSync.Result result : results) {
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, result.status);
+        }
+    }
+
+    private int countWeather(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static byte[] buildForecast() {
+        StringBuilder json = new StringBuilder("{\"city\":{\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lat\":37.39,\"lon\":-122.08}},\"cod\":\"200\",\"list\":[");
+        for (int i = 0; i < DAY_COUNT; i++) {
+            json.append(i > 0 ? "," : "").append("{\"dt\":").append(1469102400 + i * 86400)
+                    .append(",\"temp\":{\"min\":11.5,\"max\":21.25},\"pressure\":1013.2,")
+                    .append("\"humidity\":72,\"weather\":[{\"id\":800,\"main\":\"Clear\",")
+                    .append("\"description\":\"clear sky\"}],\"speed\":3.1,\"deg\":270}");
+        }
+        return json.append("]}").toString().getBytes();
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface, serving one configurable response to every
+ * request, each connection on its own thread. It honors {@code If-None-Match} and
+ * {@code If-Modified-Since} with a 304, and counts the connections and requests it got, the most
+ * requests it answered at once and the body bytes it sent.
+ * <p>
+ * It closes every connection after its response, unless keep-alive is turned on, and gzips the
+ * body for clients that accept it when gzip is turned on.
+ */
+public class StubHttpServer {
+
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+
+    private volatile byte[] body = new byte[0];
+    private volatile String eTag;
+    private volatile String lastModified;
+    private volatile int status = 200;
+    private volatile boolean keepAlive;
+    private volatile boolean gzip;
+    private volatile long delayMs;
+
+    private final List<Map<String, String>> requests = new ArrayList<>();
+    private long bodyBytesSent;
+    private int connectionCount;
+    private int activeRequests;
+    private int maxActiveRequests;
+    private final Set<Socket> sockets = new HashSet<>();
+
+    public StubHttpServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, StubHttpServer.class.getSimpleName());
+        thread.start();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    /**
+     * Sets the response. The validators may be null, to leave their header out.
+     */
+    public void setResponse(int status, byte[] body, String eTag, String lastModified) {
+        this.status = status;
+        this.body = body;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Makes every response wait before it is sent, like a slow server.
+     */
+    public void setDelayMs(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    public synchronized int getConnectionCount() {
+        return connectionCount;
+    }
+
+    public synchronized int getRequestCount() {
+        return requests.size();
+    }
+
+    /**
+     * Returns the headers of a request, with lower case names.
+     */
+    public synchronized Map<String, String> getRequestHeaders(int request) {
+        return requests.get(request);
+    }
+
+    public synchronized long getBodyBytesSent() {
+        return bodyBytesSent;
+    }
+
+    /**
+     * Returns the most requests that were being answered at the same time.
+     */
+    public synchronized int getMaxConcurrentRequests() {
+        return maxActiveRequests;
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        serverSocket.close();
+        thread.join();
+        synchronized (this) {
+            // Also ends the connections kept alive by clients.
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                synchronized (this) {
+                    connectionCount++;
+                    sockets.add(socket);
+                }
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, StubHttpServer.class.getSimpleName() + "-" + connectionCount).start();
+            } catch (IOException e) {
+                // Closed by shutdown().
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                while (handle(socket, reader) && keepAlive) {
+                    // Serves the next request on the same connection.
+                }
+            } finally {
+                synchronized (this) {
+                    sockets.remove(socket);
+                }
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Closed by shutdown(), or a client that went away.
+        }
+    }
+
+    /**
+     * Answers one request, and returns false if the client closed the connection instead.
+     */
+    private boolean handle(Socket socket, BufferedReader reader) throws IOException {
+        String requestLine = reader.readLine();
+        if (requestLine == null)
+            return false;
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+
+        byte[] responseBody = body;
+        int responseStatus = status;
+        String responseETag = eTag;
+        String responseLastModified = lastModified;
+        if ((responseETag != null && responseETag.equals(headers.get("if-none-match")))
+                || (responseLastModified != null
+                && responseLastModified.equals(headers.get("if-modified-since")))) {
+            responseStatus = 304;
+            responseBody = new byte[0];
+        }
+        String acceptEncoding = headers.get("accept-encoding");
+        boolean gzipBody = gzip && responseStatus != 304 && acceptEncoding != null
+                && acceptEncoding.contains("gzip");
+        if (gzipBody) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(compressed);
+            out.write(responseBody);
+            out.close();
+            responseBody = compressed.toByteArray();
+        }
+
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(responseStatus).append(' ')
+                .append(responseStatus == 304 ? "Not Modified" : "Stub").append("\r\n");
+        if (responseETag != null) {
+            head.append("ETag: ").append(responseETag).append("\r\n");
+        }
+        if (responseLastModified != null) {
+            head.append("Last-Modified: ").append(responseLastModified).append("\r\n");
+        }
+        head.append("Content-Type: application/json; charset=utf-8\r\n");
+        if (gzipBody) {
+            head.append("Content-Encoding: gzip\r\n");
+        }
+        if (responseStatus != 304) {
+            head.append("Content-Length: ").append(responseBody.length).append("\r\n");
+        }
+        head.append(keepAlive ? "Connection: keep-alive\r\n\r\n" : "Connection: close\r\n\r\n");
+
+        // Counted before the client can see the response, so that a test never misses it.
+        synchronized (this) {
+            requests.add(headers);
+            bodyBytesSent += responseBody.length;
+            maxActiveRequests = Math.max(maxActiveRequests, ++activeRequests);
+        }
+        try {
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            // Before the client can see the response, and send the next request.
+            synchronized (this) {
+                activeRequests--;
+            }
+        }
+
+        OutputStream out = socket.getOutputStream();
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        out.write(responseBody);
+        out.flush();
+        return true;
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The stored forecast of a location, held in memory for the whole process. The widgets, Muzei,
+ * the notification and the wearables all read the forecast of the preferred location right
+ * after a sync, and get it from here without a query.
+ * <p>
+ * A snapshot never changes. The provider invalidates it whenever it commits a change, and the
+ * next {@link #get(Context, String)} loads a new one from the provider, once.
+ */
+public final class ForecastSnapshot {
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    // these indices must match the projection
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_MIN_TEMP = 5;
+    private static final int INDEX_HUMIDITY = 6;
+    private static final int INDEX_PRESSURE = 7;
+    private static final int INDEX_WIND_SPEED = 8;
+    private static final int INDEX_DEGREES = 9;
+    private static final int INDEX_COORD_LAT = 10;
+    private static final int INDEX_COORD_LONG = 11;
+
+    private static final AtomicReference<ForecastSnapshot> sCurrent = new AtomicReference<>();
+    // Bumped on every commit of the provider. A snapshot of an older generation is stale.
+    private static final AtomicLong sGeneration = new AtomicLong();
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+
+    private final long generation;
+    private final String locationSetting;
+    private final double coordLat;
+    private final double coordLong;
+    private final long[] ids;
+    private final long[] dates;
+    private final int[] weatherIds;
+    private final String[] shortDescriptions;
+    private final double[] maxTemps;
+    private final double[] minTemps;
+    private final double[] humidities;
+    private final double[] pressures;
+    private final double[] windSpeeds;
+    private final double[] degrees;
+
+    private ForecastSnapshot(long generation, String locationSetting, Cursor cursor) {
+        this.generation = generation;
+        this.locationSetting = locationSetting;
+        int dayCount = cursor == null ? 0 : cursor.getCount();
+        ids = new long[dayCount];
+        dates = new long[dayCount];
+        weatherIds = new int[dayCount];
+        shortDescriptions = new String[dayCount];
+        maxTemps = new double[dayCount];
+        minTemps = new double[dayCount];
+        humidities = new double[dayCount];
+        pressures = new double[dayCount];
+        windSpeeds = new double[dayCount];
+        degrees = new double[dayCount];
+        double lat = 0;
+        double lon = 0;
+        for (int i = 0; i < dayCount && cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getLong(INDEX_ID);
+            dates[i] = cursor.getLong(INDEX_DATE);
+            weatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+            shortDescriptions[i] = cursor.getString(INDEX_SHORT_DESC);
+            maxTemps[i] = cursor.getDouble(INDEX_MAX_TEMP);
+            minTemps[i] = cursor.getDouble(INDEX_MIN_TEMP);
+            humidities[i] = cursor.getDouble(INDEX_HUMIDITY);
+            pressures[i] = cursor.getDouble(INDEX_PRESSURE);
+            windSpeeds[i] = cursor.getDouble(INDEX_WIND_SPEED);
+            degrees[i] = cursor.getDouble(INDEX_DEGREES);
+            lat = cursor.getDouble(INDEX_COORD_LAT);
+            lon = cursor.getDouble(INDEX_COORD_LONG);
+        }
+        coordLat = lat;
+        coordLong = lon;
+    }
+
+    /**
+     * Returns the forecast of a location, from memory if nothing changed since it was loaded, or
+     * else from the provider.
+     */
+    public static ForecastSnapshot get(Context context, String locationSetting) {
+        ForecastSnapshot current = sCurrent.get();
+        long generation = sGeneration.get();
+        if (current != null && current.generation == generation
+                && current.locationSetting.equals(locationSetting)) {
+            sHitCount.incrementAndGet();
+            return current;
+        }
+        sMissCount.incrementAndGet();
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting), FORECAST_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        ForecastSnapshot snapshot = new ForecastSnapshot(generation, locationSetting, cursor);
+        if (cursor == null) {
+            // Nothing to keep, the provider could not be asked.
+            return snapshot;
+        }
+        cursor.close();
+        // Loaded before any commit since the generation was read, or else it is stale as soon as
+        // it is published, and the next get() loads it again.
+        sCurrent.compareAndSet(current, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Makes the next {@link #get(Context, String)} load the forecast again. Called by the provider
+     * once a change is committed.
+     */
+    static void invalidate() {
+        sGeneration.incrementAndGet();
+    }
+
+    public static long getHitCount() {
+        return sHitCount.get();
+    }
+
+    public static long getMissCount() {
+        return sMissCount.get();
+    }
+
+    public String getLocationSetting() {
+        return locationSetting;
+    }
+
+    public double getCoordLat() {
+        return coordLat;
+    }
+
+    public double getCoordLong() {
+        return coordLong;
+    }
+
+    /**
+     * Returns the number of days, sorted by date, including the past ones not deleted yet.
+     */
+    public int getDayCount() {
+        return dates.length;
+    }
+
+    /**
+     * Returns the first day dated on the day of the given time or later, or
+     * {@link #getDayCount()} if there is none.
+     */
+    public int getFirstDay(long timeMillis) {
+        long date = WeatherContract.normalizeDate(timeMillis);
+        int day = 0;
+        while (day < dates.length && dates[day] < date) {
+            day++;
+        }
+        return day;
+    }
+
+    /**
+     * Returns the day dated on the day of the given time, or -1 if there is none.
+     */
+    public int indexOfDate(long timeMillis) {
+        int day = getFirstDay(timeMillis);
+        return day < dates.length && dates[day] == WeatherContract.normalizeDate(timeMillis)
+                ? day : -1;
+    }
+
+    public long getId(int day) {
+        return ids[day];
+    }
+
+    public long getDate(int day) {
+        return dates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return weatherIds[day];
+    }
+
+    public String getShortDescription(int day) {
+        return shortDescriptions[day];
+    }
+
+    public double getMaxTemp(int day) {
+        return maxTemps[day];
+    }
+
+    public double getMinTemp(int day) {
+        return minTemps[day];
+    }
+
+    public double getHumidity(int day) {
+        return humidities[day];
+    }
+
+    public double getPressure(int day) {
+        return pressures[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return windSpeeds[day];
+    }
+
+    public double getDegrees(int day) {
+        return degrees[day];
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * Rows of the weather table held column by column, in primitive arrays, so that a forecast can
+ * be built and stored without a {@link ContentValues} per day. Passed to the provider with
+ * {@link WeatherEntry#METHOD_UPSERT} under {@link WeatherEntry#EXTRA_BATCH}.
+ */
+public final class WeatherBatch implements Parcelable {
+
+    private int size;
+    long[] locationIds;
+    long[] dates;
+    String[] shortDescriptions;
+    int[] weatherIds;
+    double[] minTemps;
+    double[] maxTemps;
+    double[] humidities;
+    double[] pressures;
+    double[] windSpeeds;
+    double[] degrees;
+
+    public WeatherBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        locationIds = new long[capacity];
+        dates = new long[capacity];
+        shortDescriptions = new String[capacity];
+        weatherIds = new int[capacity];
+        minTemps = new double[capacity];
+        maxTemps = new double[capacity];
+        humidities = new double[capacity];
+        pressures = new double[capacity];
+        windSpeeds = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a row, which may get its location later, see {@link #setLocationId(long)}.
+     */
+    public void add(long locationId, long date, String shortDescription, int weatherId,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        if (size == dates.length) {
+            grow(Math.max(1, size * 2));
+        }
+        locationIds[size] = locationId;
+        dates[size] = date;
+        shortDescriptions[size] = shortDescription;
+        weatherIds[size] = weatherId;
+        minTemps[size] = minTemp;
+        maxTemps[size] = maxTemp;
+        humidities[size] = humidity;
+        pressures[size] = pressure;
+        windSpeeds[size] = windSpeed;
+        this.degrees[size] = degrees;
+        size++;
+    }
+
+    /**
+     * Gives all the rows the same location.
+     */
+    public void setLocationId(long locationId) {
+        Arrays.fill(locationIds, 0, size, locationId);
+    }
+
+    /**
+     * Returns the rows as a batch, or null if one of them does not have all the columns of the
+     * weather table, or has a value of another type.
+     */
+    static WeatherBatch fromValues(ContentValues[] values) {
+        WeatherBatch batch = new WeatherBatch(values.length);
+        for (ContentValues value : values) {
+            if (value.size() != WeatherProvider.WEATHER_COLUMNS.length)
+                return null;
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            Object shortDescription = value.get(WeatherEntry.COLUMN_SHORT_DESC);
+            Integer weatherId = value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            Double minTemp = getAsDouble(value, WeatherEntry.COLUMN_MIN_TEMP);
+            Double maxTemp = getAsDouble(value, WeatherEntry.COLUMN_MAX_TEMP);
+            Double humidity = getAsDouble(value, WeatherEntry.COLUMN_HUMIDITY);
+            Double pressure = getAsDouble(value, WeatherEntry.COLUMN_PRESSURE);
+            Double windSpeed = getAsDouble(value, WeatherEntry.COLUMN_WIND_SPEED);
+            Double degrees = getAsDouble(value, WeatherEntry.COLUMN_DEGREES);
+            if (locationId == null || date == null || !(shortDescription instanceof String)
+                    || weatherId == null || minTemp == null || maxTemp == null
+                    || humidity == null || pressure == null || windSpeed == null
+                    || degrees == null)
+                return null;
+            batch.add(locationId, date, (String) shortDescription, weatherId, minTemp, maxTemp,
+                    humidity, pressure, windSpeed, degrees);
+        }
+        return batch;
+    }
+
+    /**
+     * Returns the value of a REAL column, or null if it is missing or not a number.
+     */
+    private static Double getAsDouble(ContentValues value, String key) {
+        Object number = value.get(key);
+        return number instanceof Number ? ((Number) number).doubleValue() : null;
+    }
+
+    private void grow(int capacity) {
+        locationIds = Arrays.copyOf(locationIds, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        shortDescriptions = Arrays.copyOf(shortDescriptions, capacity);
+        weatherIds = Arrays.copyOf(weatherIds, capacity);
+        minTemps = Arrays.copyOf(minTemps, capacity);
+        maxTemps = Arrays.copyOf(maxTemps, capacity);
+        humidities = Arrays.copyOf(humidities, capacity);
+        pressures = Arrays.copyOf(pressures, capacity);
+        windSpeeds = Arrays.copyOf(windSpeeds, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(size);
+        dest.writeLongArray(Arrays.copyOf(locationIds, size));
+        dest.writeLongArray(Arrays.copyOf(dates, size));
+        dest.writeStringArray(Arrays.copyOf(shortDescriptions, size));
+        dest.writeIntArray(Arrays.copyOf(weatherIds, size));
+        dest.writeDoubleArray(Arrays.copyOf(minTemps, size));
+        dest.writeDoubleArray(Arrays.copyOf(maxTemps, size));
+        dest.writeDoubleArray(Arrays.copyOf(humidities, size));
+        dest.writeDoubleArray(Arrays.copyOf(pressures, size));
+        dest.writeDoubleArray(Arrays.copyOf(windSpeeds, size));
+        dest.writeDoubleArray(Arrays.copyOf(degrees, size));
+    }
+
+    private WeatherBatch(Parcel in) {
+        size = in.readInt();
+        locationIds = in.createLongArray();
+        dates = in.createLongArray();
+        shortDescriptions = in.createStringArray();
+        weatherIds = in.createIntArray();
+        minTemps = in.createDoubleArray();
+        maxTemps = in.createDoubleArray();
+        humidities = in.createDoubleArray();
+        pressures = in.createDoubleArray();
+        windSpeeds = in.createDoubleArray();
+        degrees = in.createDoubleArray();
+    }
+
+    public static final Creator<WeatherBatch> CREATOR = new Creator<WeatherBatch>() {
+        @Override
+        public WeatherBatch createFromParcel(Parcel in) {
+            return new WeatherBatch(in);
+        }
+
+        @Override
+        public WeatherBatch[] newArray(int size) {
+            return new WeatherBatch[size];
+        }
+    };
+}
@@ -44,6 +44,10 @@ public class WeatherContract {
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
 
+    // Provider call that copies the write-ahead log back into the database, made once a sync is
+    // done writing.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
@@ -126,6 +130,18 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Provider call that stores weather rows like a bulk insert, passed as a Parcelable array
+        // under EXTRA_VALUES or as a WeatherBatch under EXTRA_BATCH, and answers how many rows
+        // were inserted, updated or unchanged. The rows dated up to EXTRA_DELETE_UNTIL, if given,
+        // are deleted as stale in the same transaction, and observers hear of it all once.
+        public static final String METHOD_UPSERT = "upsert";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_BATCH = "batch";
+        public static final String EXTRA_DELETE_UNTIL = "delete_until";
+        public static final String EXTRA_INSERTED = "inserted";
+        public static final String EXTRA_UPDATED = "updated";
+        public static final String EXTRA_UNCHANGED = "unchanged";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -16,24 +16,112 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.Arrays;
+
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add the
+    // migration to it to MIGRATIONS.
+    static final int DATABASE_VERSION = 3;
+
+    // Databases older than this are only a cache we no longer know how to migrate, so they are
+    // created again.
+    static final int OLDEST_MIGRATED_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The weather of a location by date, which is how every forecast is read. It also holds the
+    // columns of the forecast list, so the list is read from the index alone. The days a sync
+    // deletes, by date alone, are found through the unique index of the date and location.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ");";
+
+    /**
+     * A step of the schema upgrade, from the version before its own. It runs in the transaction
+     * of the upgrade and should keep the rows, since the database is the forecast every screen
+     * shows until the next sync.
+     */
+    abstract static class Migration {
+
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // The migrations by version, from OLDEST_MIGRATED_VERSION + 1 to DATABASE_VERSION.
+    static final Migration[] MIGRATIONS = {
+            // The index of the weather by location and date.
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            }
+    };
+
+    // How many pages the write-ahead log grows to before a commit copies it back into the
+    // database. A sync writes far less, so its commits do not stop for a checkpoint, and the
+    // sync asks for one once it is done, see checkpoint().
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // The readers, the forecast list, the widgets and Muzei, each get a connection of their
+        // own from the pool, and read the last commit while a sync writes.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // This is the connection that writes, so the one whose commits checkpoint.
+        if (db.isWriteAheadLoggingEnabled()) {
+            runPragma(db, "wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        }
+    }
+
+    /**
+     * Copies the write-ahead log back into the database, as far as the readers allow without
+     * waiting for them.
+     */
+    void checkpoint() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.isWriteAheadLoggingEnabled()) {
+            runPragma(db, "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    // Pragmas answer with a row, so they are run as queries.
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -81,18 +169,71 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion >= OLDEST_MIGRATED_VERSION) {
+            migrate(sqLiteDatabase, oldVersion, newVersion, MIGRATIONS);
+            return;
+        }
+
+        // This database is only a cache for online data, so when there is no migration from
+        // its version the policy is to simply to discard the data and start over
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
+
+    /**
+     * Runs the migrations after oldVersion up to newVersion, in order.
+     *
+     * @throws IllegalStateException if one of the versions has no migration.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion,
+                        Migration[] migrations) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            Migration migration = null;
+            for (Migration candidate : migrations) {
+                if (candidate.version == version) {
+                    migration = candidate;
+                    break;
+                }
+            }
+            if (migration == null) {
+                throw new IllegalStateException("No migration to version " + version);
+            }
+            migration.migrate(db);
+        }
+    }
+
+    /**
+     * Rebuilds a table with new column definitions and copies its rows across, for the changes
+     * SQLite cannot make in place, like renaming or dropping a column. The indexes of the table
+     * go with the old one and have to be created again.
+     *
+     * @param table             the table to rebuild, which keeps its name.
+     * @param columnDefinitions what goes between the parentheses of its CREATE TABLE.
+     * @param columns           the columns of the new table that are copied.
+     * @param fromColumns       the column, or expression, of the old table each is copied from.
+     */
+    static void copyTable(SQLiteDatabase db, String table, String columnDefinitions,
+                          String[] columns, String[] fromColumns) {
+        if (columns.length != fromColumns.length) {
+            throw new IllegalArgumentException("Columns " + Arrays.toString(columns)
+                    + " are not copied from " + Arrays.toString(fromColumns));
+        }
+        // The new table takes the name of the old one once that is dropped, so that the tables
+        // referencing it keep referencing it by name.
+        String newTable = table + "_new";
+        db.execSQL("DROP TABLE IF EXISTS " + newTable);
+        db.execSQL("CREATE TABLE " + newTable + " (" + columnDefinitions + ")");
+        db.execSQL("INSERT INTO " + newTable + " (" + TextUtils.join(", ", columns) + ") SELECT "
+                + TextUtils.join(", ", fromColumns) + " FROM " + table);
+        db.execSQL("DROP TABLE " + table);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + table);
+    }
 }
@@ -17,12 +17,27 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,6 +45,32 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // The columns bound by the compiled weather statements, in the order of WeatherBatch.add().
+    static final String[] WEATHER_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // The URIs changed by the batch each thread is running, notified once it commits, see
+    // beginNotificationBatch(). Unset while the thread runs no batch.
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    // The database the weather statements were compiled for. The statements are shared by all
+    // the threads, which is only safe because they are bound and run inside a transaction: it
+    // holds the single primary connection, so another upsert waits in beginTransaction() until
+    // this one is done with them.
+    private SQLiteDatabase mStatementDb;
+    private SQLiteStatement mInsertWeather;
+    private SQLiteStatement mUpdateWeather;
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
@@ -62,13 +103,50 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
+    //location_id = ? AND date BETWEEN ? AND ?
+    static final String sLocationIdAndDateRangeSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ? ";
+
+    //date <= ?, the days a sync deletes, of every location
+    static final String sStaleWeatherSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?";
+
+    //_id, then the weather columns with the location and date first
+    static final String[] sStoredWeatherProjection = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
     //location.location_setting = ? AND date = ?
     private static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    /**
+     * A SELECT statement with its arguments.
+     */
+    static final class QuerySql {
+        final String sql;
+        final String[] selectionArgs;
+
+        QuerySql(String sql, String[] selectionArgs) {
+            this.sql = sql;
+            this.selectionArgs = selectionArgs;
+        }
+    }
+
+    private static QuerySql getWeatherByLocationSetting(Uri uri, String[] projection,
+                                                        String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
@@ -83,29 +161,74 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return new QuerySql(sWeatherByLocationSettingQueryBuilder.buildQuery(
                 projection,
                 selection,
-                selectionArgs,
                 null,
                 null,
-                sortOrder
-        );
+                sortOrder,
+                null
+        ), selectionArgs);
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
+    private static QuerySql getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return new QuerySql(sWeatherByLocationSettingQueryBuilder.buildQuery(
                 projection,
                 sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
                 null,
                 null,
-                sortOrder
-        );
+                sortOrder,
+                null
+        ), new String[]{locationSetting, Long.toString(date)});
+    }
+
+    /**
+     * Returns the statement that {@link #query} runs for a URI, which lets the tests check how
+     * SQLite plans it.
+     */
+    static QuerySql buildQuerySql(Uri uri, String[] projection, String selection,
+                                  String[] selectionArgs, String sortOrder) {
+        // Here's the switch statement that, given a URI, will determine what kind of request it is,
+        // and query the database accordingly.
+        switch (sUriMatcher.match(uri)) {
+            // "weather/*/*"
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+            // "weather/*"
+            case WEATHER_WITH_LOCATION:
+                return getWeatherByLocationSetting(uri, projection, sortOrder);
+            // "weather"
+            case WEATHER:
+                return new QuerySql(SQLiteQueryBuilder.buildQueryString(
+                        false,
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        null,
+                        null,
+                        sortOrder,
+                        null
+                ), selectionArgs);
+            // "location"
+            case LOCATION:
+                return new QuerySql(SQLiteQueryBuilder.buildQueryString(
+                        false,
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        null,
+                        null,
+                        sortOrder,
+                        null
+                ), selectionArgs);
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
     }
 
     /*
@@ -172,51 +295,9 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Here's the switch statement that, given a URI, will determine what kind of request it is,
-        // and query the database accordingly.
-        Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
-            // "weather/*/*"
-            case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
-            // "weather/*"
-            case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
-            }
-            // "weather"
-            case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
-            // "location"
-            case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
-
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
-        }
+        QuerySql querySql = buildQuerySql(uri, projection, selection, selectionArgs, sortOrder);
+        Cursor retCursor = mOpenHelper.getReadableDatabase().rawQuery(querySql.sql,
+                querySql.selectionArgs);
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
@@ -251,7 +332,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -276,7 +357,7 @@ public class WeatherProvider extends ContentProvider {
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -310,44 +391,477 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                UpsertCounts counts = upsertWeather(uri, values);
+                return counts.inserted + counts.updated + counts.unchanged;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_UPSERT.equals(method)) {
+            WeatherBatch batch = extras.getParcelable(WeatherContract.WeatherEntry.EXTRA_BATCH);
+            UpsertCounts counts;
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            // The rows and the delete of the stale ones are one change to the observers.
+            boolean ownsBatch = beginNotificationBatch();
+            boolean committed = false;
+            db.beginTransactionNonExclusive();
+            try {
+                if (batch != null) {
+                    counts = upsertWeather(WeatherContract.WeatherEntry.CONTENT_URI, batch);
+                } else {
+                    Parcelable[] parcelables =
+                            extras.getParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES);
+                    ContentValues[] values = new ContentValues[parcelables.length];
+                    System.arraycopy(parcelables, 0, values, 0, parcelables.length);
+                    counts = upsertWeather(WeatherContract.WeatherEntry.CONTENT_URI, values);
+                }
+                if (extras.containsKey(WeatherContract.WeatherEntry.EXTRA_DELETE_UNTIL)) {
+                    delete(WeatherContract.WeatherEntry.CONTENT_URI, sStaleWeatherSelection,
+                            new String[]{Long.toString(extras.getLong(
+                                    WeatherContract.WeatherEntry.EXTRA_DELETE_UNTIL))});
+                }
+                db.setTransactionSuccessful();
+                committed = true;
+            } finally {
+                db.endTransaction();
+                endNotificationBatch(ownsBatch, committed);
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_INSERTED, counts.inserted);
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_UPDATED, counts.updated);
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_UNCHANGED, counts.unchanged);
+            return result;
+        }
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            mOpenHelper.checkpoint();
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Applies the operations in one transaction, so that they all happen or none does, and
+     * notifies each URI they changed once, when they are all done.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean ownsBatch = beginNotificationBatch();
+        boolean committed = false;
+        db.beginTransactionNonExclusive();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            committed = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            endNotificationBatch(ownsBatch, committed);
+        }
+    }
+
+    /**
+     * Notifies the observers of a URI of a change, or, while the thread runs a batch, once the
+     * batch commits.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            publishChange(uri);
+        }
+    }
+
+    /**
+     * Tells the observers of a URI, and the forecast snapshot, of a committed change.
+     */
+    private void publishChange(Uri uri) {
+        ForecastSnapshot.invalidate();
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Starts holding back the notifications of the thread, unless a batch it runs already does.
+     *
+     * @return whether the caller owns the batch, and has to end it.
+     */
+    private boolean beginNotificationBatch() {
+        if (mPendingNotifications.get() != null)
+            return false;
+        mPendingNotifications.set(new LinkedHashSet<Uri>());
+        return true;
+    }
+
+    /**
+     * Ends the batch of the thread, notifying each URI it changed once if it was committed. A URI
+     * is left out when one of its ancestors is notified, which reaches its observers already.
+     */
+    private void endNotificationBatch(boolean ownsBatch, boolean committed) {
+        if (!ownsBatch)
+            return;
+        Set<Uri> pending = mPendingNotifications.get();
+        mPendingNotifications.remove();
+        if (!committed)
+            return;
+        for (Uri uri : pending) {
+            if (!hasAncestor(pending, uri)) {
+                publishChange(uri);
+            }
+        }
+    }
+
+    private static boolean hasAncestor(Set<Uri> uris, Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        for (Uri candidate : uris) {
+            List<String> candidateSegments = candidate.getPathSegments();
+            if (candidateSegments.size() < segments.size()
+                    && candidate.getAuthority().equals(uri.getAuthority())
+                    && segments.subList(0, candidateSegments.size()).equals(candidateSegments)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How many rows of a batch were inserted, updated in place or left as they were.
+     */
+    static final class UpsertCounts {
+        int inserted;
+        int updated;
+        int unchanged;
+    }
+
+    /**
+     * Stores a batch of weather rows without rewriting the ones that did not change. A plain
+     * insert of a day that is already stored is turned into a delete and an insert by the
+     * UNIQUE (date, location_id) ON CONFLICT REPLACE constraint, which gives it a new id and
+     * rewrites the indexes. Instead, the stored rows of each location of the batch, over the
+     * dates of the batch, are read in one query; each new row is then inserted, updated in place
+     * only if one of its values differs, or left alone. Observers are only notified when
+     * something actually changed.
+     */
+    private UpsertCounts upsertWeather(Uri uri, ContentValues[] values) {
+        // Complete rows take the compiled statements, the others are inserted as they are.
+        WeatherBatch batch = WeatherBatch.fromValues(values);
+        if (batch != null) {
+            return upsertWeather(uri, batch);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        UpsertCounts counts = new UpsertCounts();
+
+        // The rows of the batch by location, in their order.
+        Map<Long, List<ContentValues>> valuesByLocation = new LinkedHashMap<>();
+        db.beginTransactionNonExclusive();
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                if (locationId == null
+                        || !value.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // Nothing to compare with, the insert will tell what is wrong with it.
+                    if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                        counts.inserted++;
+                    }
+                    continue;
+                }
+                List<ContentValues> locationValues = valuesByLocation.get(locationId);
+                if (locationValues == null) {
+                    locationValues = new ArrayList<>();
+                    valuesByLocation.put(locationId, locationValues);
+                }
+                locationValues.add(value);
+            }
+            for (Map.Entry<Long, List<ContentValues>> entry : valuesByLocation.entrySet()) {
+                upsertLocationWeather(db, entry.getKey(), entry.getValue(), counts);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (counts.inserted + counts.updated > 0) {
+            notifyChange(uri);
+        }
+        return counts;
+    }
+
+    private void upsertLocationWeather(SQLiteDatabase db, long locationId,
+                                       List<ContentValues> values, UpsertCounts counts) {
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (ContentValues value : values) {
+            long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            minDate = Math.min(minDate, date);
+            maxDate = Math.max(maxDate, date);
+        }
+
+        Cursor stored = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                sLocationIdAndDateRangeSelection,
+                new String[]{Long.toString(locationId), Long.toString(minDate),
+                        Long.toString(maxDate)},
+                null, null, null);
+        try {
+            int idIndex = stored.getColumnIndex(WeatherContract.WeatherEntry._ID);
+            int dateIndex = stored.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            Map<Long, Integer> positionsByDate = new HashMap<>();
+            while (stored.moveToNext()) {
+                positionsByDate.put(stored.getLong(dateIndex), stored.getPosition());
+            }
+
+            for (ContentValues value : values) {
+                Integer position = positionsByDate.get(
+                        value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                if (position == null) {
+                    if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                        counts.inserted++;
+                    }
+                    continue;
+                }
+                stored.moveToPosition(position);
+                if (isStored(stored, value)) {
+                    counts.unchanged++;
+                } else if (db.update(WeatherContract.WeatherEntry.TABLE_NAME, value,
+                        WeatherContract.WeatherEntry._ID + " = ?",
+                        new String[]{Long.toString(stored.getLong(idIndex))}) > 0) {
+                    counts.updated++;
+                }
+            }
+        } finally {
+            stored.close();
+        }
+    }
+
+    /**
+     * Like {@link #upsertWeather(Uri, ContentValues[])}, but for a columnar batch, whose values
+     * are compared and bound as primitives, with statements compiled once.
+     */
+    private UpsertCounts upsertWeather(Uri uri, WeatherBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        UpsertCounts counts = new UpsertCounts();
+        int size = batch.size();
+        // Normalized apart, since a call() made in process hands over the caller's batch itself.
+        long[] dates = new long[size];
+        for (int i = 0; i < size; i++) {
+            dates[i] = WeatherContract.normalizeDate(batch.dates[i]);
+        }
+
+        // The stored rows of each location of the batch.
+        Map<Long, StoredWeather> storedByLocation = new HashMap<>();
+        db.beginTransactionNonExclusive();
+        try {
+            compileWeatherStatements(db);
+            for (int i = 0; i < size; i++) {
+                StoredWeather stored = storedByLocation.get(batch.locationIds[i]);
+                if (stored == null) {
+                    stored = queryStoredWeather(db, batch, dates, batch.locationIds[i]);
+                    storedByLocation.put(batch.locationIds[i], stored);
+                }
+                Integer position = stored.positionsByDate.get(dates[i]);
+                if (position == null) {
+                    bindWeather(mInsertWeather, batch, dates, i);
+                    if (mInsertWeather.executeInsert() != -1) {
+                        counts.inserted++;
+                    }
+                    continue;
+                }
+                stored.cursor.moveToPosition(position);
+                if (isStored(stored.cursor, batch, i)) {
+                    counts.unchanged++;
+                } else {
+                    bindWeather(mUpdateWeather, batch, dates, i);
+                    mUpdateWeather.bindLong(WEATHER_COLUMNS.length + 1, stored.cursor.getLong(0));
+                    if (mUpdateWeather.executeUpdateDelete() > 0) {
+                        counts.updated++;
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            for (StoredWeather stored : storedByLocation.values()) {
+                stored.cursor.close();
+            }
+        }
+        if (counts.inserted + counts.updated > 0) {
+            notifyChange(uri);
+        }
+        return counts;
+    }
+
+    /**
+     * The weather rows of a location over the dates of a batch.
+     */
+    private static final class StoredWeather {
+        /**
+         * Holds the {@link #sStoredWeatherProjection} of the rows.
+         */
+        final Cursor cursor;
+        final Map<Long, Integer> positionsByDate = new HashMap<>();
+
+        StoredWeather(Cursor cursor) {
+            this.cursor = cursor;
+        }
+    }
+
+    private static StoredWeather queryStoredWeather(SQLiteDatabase db, WeatherBatch batch,
+                                                    long[] dates, long locationId) {
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.locationIds[i] == locationId) {
+                minDate = Math.min(minDate, dates[i]);
+                maxDate = Math.max(maxDate, dates[i]);
+            }
+        }
+        StoredWeather stored = new StoredWeather(db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                sStoredWeatherProjection, sLocationIdAndDateRangeSelection,
+                new String[]{Long.toString(locationId), Long.toString(minDate),
+                        Long.toString(maxDate)},
+                null, null, null));
+        while (stored.cursor.moveToNext()) {
+            stored.positionsByDate.put(stored.cursor.getLong(1), stored.cursor.getPosition());
+        }
+        return stored;
+    }
+
+    /**
+     * Returns true if the row under the cursor of {@link StoredWeather} already has the values of
+     * a row of the batch.
+     */
+    private static boolean isStored(Cursor row, WeatherBatch batch, int i) {
+        String shortDescription = row.getString(2);
+        return (shortDescription != null
+                ? shortDescription.equals(batch.shortDescriptions[i])
+                : batch.shortDescriptions[i] == null)
+                && row.getLong(3) == batch.weatherIds[i]
+                && row.getDouble(4) == batch.minTemps[i]
+                && row.getDouble(5) == batch.maxTemps[i]
+                && row.getDouble(6) == batch.humidities[i]
+                && row.getDouble(7) == batch.pressures[i]
+                && row.getDouble(8) == batch.windSpeeds[i]
+                && row.getDouble(9) == batch.degrees[i];
+    }
+
+    /**
+     * Binds a row of the batch, with its normalized date, to the {@link #WEATHER_COLUMNS} of a
+     * statement.
+     */
+    private static void bindWeather(SQLiteStatement statement, WeatherBatch batch, long[] dates,
+                                    int i) {
+        statement.bindLong(1, batch.locationIds[i]);
+        statement.bindLong(2, dates[i]);
+        if (batch.shortDescriptions[i] != null) {
+            statement.bindString(3, batch.shortDescriptions[i]);
+        } else {
+            statement.bindNull(3);
+        }
+        statement.bindLong(4, batch.weatherIds[i]);
+        statement.bindDouble(5, batch.minTemps[i]);
+        statement.bindDouble(6, batch.maxTemps[i]);
+        statement.bindDouble(7, batch.humidities[i]);
+        statement.bindDouble(8, batch.pressures[i]);
+        statement.bindDouble(9, batch.windSpeeds[i]);
+        statement.bindDouble(10, batch.degrees[i]);
+    }
+
+    /**
+     * Compiles the weather statements for the open database, once. They must only be bound and
+     * run inside a transaction, see {@link #mStatementDb}.
+     */
+    private synchronized void compileWeatherStatements(SQLiteDatabase db) {
+        if (db == mStatementDb)
+            return;
+        closeWeatherStatements();
+        StringBuilder insert = new StringBuilder("INSERT INTO ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" (");
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < WEATHER_COLUMNS.length; i++) {
+            insert.append(i > 0 ? ", " : "").append(WEATHER_COLUMNS[i]);
+            update.append(i > 0 ? ", " : "").append(WEATHER_COLUMNS[i]).append(" = ?");
+        }
+        insert.append(") VALUES (?");
+        for (int i = 1; i < WEATHER_COLUMNS.length; i++) {
+            insert.append(", ?");
+        }
+        insert.append(")");
+        update.append(" WHERE ").append(WeatherContract.WeatherEntry._ID).append(" = ?");
+        mInsertWeather = db.compileStatement(insert.toString());
+        mUpdateWeather = db.compileStatement(update.toString());
+        mStatementDb = db;
+    }
+
+    private synchronized void closeWeatherStatements() {
+        if (mStatementDb != null) {
+            mInsertWeather.close();
+            mUpdateWeather.close();
+            mStatementDb = null;
+        }
+    }
+
+    /**
+     * Returns true if the row under the cursor already has all the values.
+     */
+    private static boolean isStored(Cursor row, ContentValues values) {
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            int index = row.getColumnIndex(entry.getKey());
+            if (index == -1)
+                return false;
+            Object value = entry.getValue();
+            if (value == null) {
+                if (!row.isNull(index))
+                    return false;
+            } else if (row.isNull(index)) {
+                return false;
+            } else if (value instanceof Number) {
+                // Integers are stored in REAL columns too, so numbers compare as doubles.
+                if (row.getDouble(index) != ((Number) value).doubleValue())
+                    return false;
+            } else if (value instanceof Boolean) {
+                if (row.getLong(index) != ((Boolean) value ? 1 : 0))
+                    return false;
+            } else if (value instanceof byte[]) {
+                if (!Arrays.equals(row.getBlob(index), (byte[]) value))
+                    return false;
+            } else if (!value.toString().equals(row.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the helper of the database the provider reads and writes, for the tests that change
+     * how it is opened.
+     */
+    WeatherDbHelper getOpenHelper() {
+        return mOpenHelper;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        closeWeatherStatements();
         mOpenHelper.close();
         super.shutdown();
     }
@@ -0,0 +1,144 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+/**
+ * Fetches the forecast with a conditional request: when the last stored response was for the
+ * same URL, its validators are sent along, and a 304 from the server means the forecast did not
+ * change and nothing has to be read. Responses that are stored are kept in a
+ * {@link ForecastResponseCache}, as far as it can write them.
+ * <p>
+ * It counts the requests it made and the body bytes it received on the wire, which are smaller
+ * than the decoded body when the server compressed it. Only used from the sync thread.
+ */
+class ForecastFetcher {
+
+    private final ForecastResponseCache cache;
+    private final SyncHttpClient httpClient;
+
+    private int requestCount;
+    private long bytesReceived;
+
+    ForecastFetcher(ForecastResponseCache cache, SyncHttpClient httpClient) {
+        this.cache = cache;
+        this.httpClient = httpClient;
+    }
+
+    ForecastResponseCache getCache() {
+        return cache;
+    }
+
+    int getRequestCount() {
+        return requestCount;
+    }
+
+    long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Requests the forecast. The caller closes the response, after committing it once the
+     * forecast is stored.
+     *
+     * @throws IOException if the request fails, or the server answers with an error.
+     */
+    Response fetch(URL url) throws IOException {
+        String spec = url.toString();
+        ForecastResponseCache.Entry cached = cache.read();
+        if (cached != null && !cached.url.equals(spec)) {
+            cached = null;
+        }
+
+        String[] validators = new String[4];
+        int count = 0;
+        if (cached != null && cached.eTag != null) {
+            validators[count++] = "If-None-Match";
+            validators[count++] = cached.eTag;
+        }
+        if (cached != null && cached.lastModified != null) {
+            validators[count++] = "If-Modified-Since";
+            validators[count++] = cached.lastModified;
+        }
+        requestCount++;
+        SyncHttpClient.Response response = httpClient.get(url,
+                Arrays.copyOf(validators, count));
+        try {
+            int code = response.getCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new Response(null, response);
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected HTTP " + code + " for " + url);
+            }
+            return new Response(cache.record(response.getBody(), spec,
+                    response.getHeader("ETag"), response.getHeader("Last-Modified"),
+                    System.currentTimeMillis()), response);
+        } catch (IOException e) {
+            close(response);
+            throw e;
+        }
+    }
+
+    /**
+     * The answer to a forecast request: either a new body, or the news that the stored forecast
+     * is still current.
+     */
+    final class Response implements Closeable {
+
+        private final ForecastResponseCache.Recording body;
+        private final SyncHttpClient.Response response;
+
+        private Response(ForecastResponseCache.Recording body, SyncHttpClient.Response response) {
+            this.body = body;
+            this.response = response;
+        }
+
+        /**
+         * Returns true if the server answered that the forecast did not change since the cached
+         * response.
+         */
+        boolean isNotModified() {
+            return body == null;
+        }
+
+        InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Makes this response the cached one, once its forecast is stored. Never fails the sync:
+         * a response that cannot be cached is only fetched again next time.
+         */
+        void commit() {
+            body.commit();
+        }
+
+        /**
+         * Closes the response, which lets its connection be reused.
+         */
+        @Override
+        public void close() throws IOException {
+            // The connection is released first, while the rest of the body can still be drained.
+            try {
+                ForecastFetcher.this.close(response);
+            } finally {
+                if (body != null) {
+                    body.close();
+                }
+            }
+        }
+    }
+
+    private void close(SyncHttpClient.Response response) throws IOException {
+        try {
+            response.close();
+        } finally {
+            bytesReceived += response.getWireBytes();
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk copy of the last forecast response that was stored, with the validators the server sent
+ * along, so that the next sync can ask for the forecast only if it changed, and so that the
+ * forecast can be stored again without the network.
+ * <p>
+ * The file holds a small header, then the gzipped body:
+ * <pre>
+ *   int    magic
+ *   UTF    request URL
+ *   UTF    ETag, empty if none
+ *   UTF    Last-Modified, empty if none
+ *   long   when the response was received, in milliseconds since the epoch
+ *   ...    body, gzipped
+ * </pre>
+ * A new response is written to a temporary file while it is parsed, and only replaces the copy
+ * once it was stored, see {@link Recording}. Writing the cache is best effort: when it fails, for
+ * instance on a full disk, the response is still read, only not cached.
+ */
+class ForecastResponseCache {
+
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast_response.gz";
+
+    private static final int MAGIC = 0x53554e52;
+
+    private final File file;
+    private final File tempFile;
+
+    ForecastResponseCache(File file) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * The header of the cached response.
+     */
+    static final class Entry {
+
+        final String url;
+        /**
+         * Null when the server did not send one.
+         */
+        final String eTag;
+        final String lastModified;
+        final long receivedAtMs;
+
+        Entry(String url, String eTag, String lastModified, long receivedAtMs) {
+            this.url = url;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.receivedAtMs = receivedAtMs;
+        }
+    }
+
+    /**
+     * Returns the header of the cached response, or null if there is none.
+     */
+    Entry read() {
+        if (!file.exists())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return readHeader(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the body of the cached response, or returns null if there is none. The caller
+     * closes it.
+     */
+    InputStream openBody() {
+        if (!file.exists())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (readHeader(in) != null) {
+                    return new GZIPInputStream(in);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            in.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + file, e);
+        }
+        return null;
+    }
+
+    void clear() {
+        file.delete();
+        tempFile.delete();
+    }
+
+    /**
+     * Starts recording a new response: what is read from the returned stream is also written to
+     * the cache, which the response replaces on {@link Recording#commit()}. If the cache cannot
+     * be written, the stream only reads the response.
+     */
+    Recording record(InputStream body, String url, String eTag, String lastModified,
+                     long receivedAtMs) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeUTF(url);
+            out.writeUTF(eTag != null ? eTag : "");
+            out.writeUTF(lastModified != null ? lastModified : "");
+            out.writeLong(receivedAtMs);
+            return new Recording(body, new GZIPOutputStream(out));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + tempFile + ", the response is not cached", e);
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            tempFile.delete();
+            return new Recording(body, null);
+        }
+    }
+
+    private static Entry readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC)
+            return null;
+        String url = in.readUTF();
+        String eTag = in.readUTF();
+        String lastModified = in.readUTF();
+        long receivedAtMs = in.readLong();
+        return new Entry(url, eTag.isEmpty() ? null : eTag,
+                lastModified.isEmpty() ? null : lastModified, receivedAtMs);
+    }
+
+    /**
+     * A response body that copies what is read from it to the cache. Closing it without a
+     * commit, for instance because the response could not be parsed, leaves the cache as it was.
+     * Only reading the response can fail; an error writing the cache stops the copy, and leaves
+     * the cache as it was too.
+     */
+    class Recording extends FilterInputStream {
+
+        /**
+         * Null once the copy is committed, discarded or failed.
+         */
+        private GZIPOutputStream out;
+
+        private Recording(InputStream in, GZIPOutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && out != null) {
+                try {
+                    out.write(b);
+                } catch (IOException e) {
+                    stopRecording(e);
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0 && out != null) {
+                try {
+                    out.write(buffer, offset, read);
+                } catch (IOException e) {
+                    stopRecording(e);
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes still have to reach the cache.
+            byte[] buffer = new byte[(int) Math.min(count, 4096)];
+            long skipped = 0;
+            while (skipped < count) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                if (read == -1)
+                    break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Reads what is left of the body and makes the response the cached one. The response was
+         * already used, so a failure only leaves the cache as it was.
+         */
+        void commit() {
+            try {
+                byte[] buffer = new byte[4096];
+                while (out != null && read(buffer, 0, buffer.length) != -1) {
+                    // Only copied to the cache.
+                }
+                if (out == null)
+                    return;
+                out.close();
+                out = null;
+                if (!tempFile.renameTo(file)) {
+                    tempFile.delete();
+                    Log.e(LOG_TAG, "Error replacing " + file);
+                }
+            } catch (IOException e) {
+                stopRecording(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                discard();
+            }
+        }
+
+        private void stopRecording(IOException e) {
+            Log.e(LOG_TAG, "Error writing " + tempFile + ", the response is not cached", e);
+            discard();
+        }
+
+        private void discard() {
+            if (out == null)
+                return;
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // The copy is dropped anyway.
+            } finally {
+                out = null;
+                tempFile.delete();
+            }
+        }
+    }
+}
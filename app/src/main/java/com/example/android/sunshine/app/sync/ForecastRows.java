@@ -0,0 +1,165 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.forecast.ForecastHandler;
+
+/**
+ * Turns the values of the forecast into the rows of the insert batch as the parser reads
+ * them. The rows are kept column by column, without a {@link ContentValues} per day.
+ */
+class ForecastRows implements ForecastHandler {
+
+    // Room for the 14 days of a forecast.
+    final WeatherBatch batch = new WeatherBatch(14);
+    private final Time dayTime;
+    private final int julianStartDay;
+    String cityName;
+    double cityLatitude;
+    double cityLongitude;
+    /**
+     * The row ID of the location, once the rows are stored.
+     */
+    long locationId;
+    /**
+     * How many rows were inserted, updated or left unchanged, once they are stored.
+     */
+    int inserted;
+    int updated;
+    int unchanged;
+
+    /**
+     * @param receivedAtMs when the response was received, which tells the date of its first day.
+     */
+    ForecastRows(long receivedAtMs) {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        julianStartDay = Time.getJulianDay(receivedAtMs, dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        this.dayTime = new Time();
+    }
+
+    /**
+     * Returns the date of a day of the forecast, the first one being 0.
+     */
+    long getDate(int index) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        return dayTime.setJulianDay(julianStartDay + index);
+    }
+
+    /**
+     * Stores the rows, with their location, in one batch, and deletes the stale rows, those
+     * before the first day, in the same transaction. Days that did not change since the last sync
+     * are left as they are.
+     *
+     * @return the number of rows stored, changed or not.
+     */
+    int store(ContentResolver contentResolver, String locationSetting) {
+        // The city may come after the days in the response, so the rows only get their
+        // location once it is all read.
+        locationId = addLocation(contentResolver, locationSetting, cityName, cityLatitude,
+                cityLongitude);
+        batch.setLocationId(locationId);
+        if (batch.size() == 0)
+            return 0;
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.WeatherEntry.EXTRA_BATCH, batch);
+        // delete old data so we don't build up an endless history
+        extras.putLong(WeatherContract.WeatherEntry.EXTRA_DELETE_UNTIL, getDate(-1));
+        Bundle counts = contentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_UPSERT, null, extras);
+        inserted = counts.getInt(WeatherContract.WeatherEntry.EXTRA_INSERTED);
+        updated = counts.getInt(WeatherContract.WeatherEntry.EXTRA_UPDATED);
+        unchanged = counts.getInt(WeatherContract.WeatherEntry.EXTRA_UNCHANGED);
+        return inserted + updated + unchanged;
+    }
+
+    @Override
+    public void onCity(String name, double latitude, double longitude) {
+        cityName = name;
+        cityLatitude = latitude;
+        cityLongitude = longitude;
+    }
+
+    @Override
+    public void onDay(int index, double pressure, int humidity, double windSpeed,
+                      double windDirection, double high, double low, String description,
+                      int weatherId) {
+        long dateTime = getDate(index);
+
+        // The location is only known once the whole response was read.
+        batch.add(0, dateTime, description, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
+
+    /**
+     * Helper method to handle insertion of a new location in the weather database.
+     *
+     * @param contentResolver The resolver of the weather provider.
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName        A human-readable city name, e.g "Mountain View"
+     * @param lat             the latitude of the city
+     * @param lon             the longitude of the city
+     * @return the row ID of the added location.
+     */
+    static long addLocation(ContentResolver contentResolver, String locationSetting,
+                            String cityName, double lat, double lon) {
+        long locationId;
+
+        // First, check if the location with this city name exists in the db
+        Cursor locationCursor = contentResolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+
+        if (locationCursor.moveToFirst()) {
+            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
+            locationId = locationCursor.getLong(locationIdIndex);
+        } else {
+            // Now that the content provider is set up, inserting rows of data is pretty simple.
+            // First create a ContentValues object to hold the data you want to insert.
+            ContentValues locationValues = new ContentValues();
+
+            // Then add the data, along with the corresponding name of the data type,
+            // so the content provider knows what kind of value is being inserted.
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+            // Finally, insert location data into the database.
+            Uri insertedUri = contentResolver.insert(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    locationValues
+            );
+
+            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
+            locationId = ContentUris.parseId(insertedUri);
+        }
+
+        locationCursor.close();
+        // Wait, that worked?  Yes!
+        return locationId;
+    }
+}
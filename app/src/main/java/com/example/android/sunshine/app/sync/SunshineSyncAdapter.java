@@ -8,8 +8,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -26,7 +24,6 @@ import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
@@ -34,7 +31,10 @@ import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.forecast.ForecastFormatException;
+import com.example.android.sunshine.app.forecast.ForecastJsonParser;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -42,34 +42,43 @@ import com.google.android.gms.common.api.ResultCallbacks;
 import com.google.android.gms.common.api.Status;
 import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener {
     public static final int ICON_QUALITY_PERCENTAGE = 100;
     public static final String SUNSHINE_WEATHER_PATH = "/sunshine-weather";
-    public static final String HIGHEST_TEMPERATURE_KEY = "highestTemperature";
-    public static final String LOWEST_TEMPERATURE_KEY = "lowestTemperature";
+    public static final String WEATHER_PAYLOAD_KEY = "weatherPayload";
     public static final String WEATHER_ICON_KEY = "weatherIcon";
-    public static final String TIME_KEY = "Time";
+    public static final String WEATHER_ICON_NAME_KEY = "weatherIconName";
+    public static final String SUNSHINE_ICON_CACHE_PATH = "/sunshine-icon-cache";
+    public static final String ICON_CACHE_KEYS_KEY = "iconKeys";
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
@@ -81,25 +90,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    private static final String[] WEARABLE_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
     private final GoogleApiClient googleApiClient;
+    private final WearWeatherPayload wearWeatherPayload = new WearWeatherPayload();
+    private final ForecastFetcher forecastFetcher;
+    private final TrackedLocationSync trackedLocationSync;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -114,6 +108,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        forecastFetcher = new ForecastFetcher(new ForecastResponseCache(
+                new File(context.getFilesDir(), ForecastResponseCache.FILE_NAME)),
+                SyncHttpClient.getInstance());
+        trackedLocationSync = new TrackedLocationSync(context.getContentResolver(),
+                SyncHttpClient.getInstance(), TrackedLocationSync.DEFAULT_THREAD_COUNT);
         googleApiClient = new GoogleApiClient.Builder(context)
                 .addApi(Wearable.API)
                 .addConnectionCallbacks(this)
@@ -133,34 +132,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
         String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        // The other tracked locations are synced meanwhile, in parallel.
+        TrackedLocationSync.Batch trackedLocations = startTrackedLocations(locationQuery);
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        ForecastFetcher.Response response = null;
 
+        URL url = null;
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
             // Instead of always building the query based off of the location string, we want to
             // potentially build a query using a lat/lon value. This will be the case when we are
             // syncing based off of a new location from the Place Picker API. So we need to check
@@ -168,274 +148,277 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             // service may not understand the location address provided by the Place Picker API
             // and the user could end up with no weather! The horror!
             if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
+                url = buildForecastUrl(null, locationLatitude, locationLongitude);
             } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+                url = buildForecastUrl(locationQuery, null, null);
             }
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
+            // Create the request to OpenWeatherMap, only for a forecast newer than the stored one
+            response = forecastFetcher.fetch(url);
+            if (response.isNotModified()) {
+                // Nothing to parse or store, unless the database lost what was stored.
+                Log.d(LOG_TAG, "Forecast not modified");
+                if (hasWeather(locationQuery)) {
+                    updateDailyViews();
+                    setLocationStatus(getContext(), LOCATION_STATUS_OK);
+                } else if (!restoreCachedForecast(url, locationQuery)) {
+                    setLocationStatus(getContext(), LOCATION_STATUS_OK);
+                }
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // The response is parsed as it arrives, without ever being held as a whole. An empty
+            // stream ends the parse early, like a dropped connection.
+            Reader reader = new InputStreamReader(response.getBody(), "UTF-8");
+            if (getWeatherDataFromJson(reader, locationQuery, System.currentTimeMillis())) {
+                response.commit();
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
+            // Without the network, the last response can still bring back a lost forecast.
+            if (url == null || hasWeather(locationQuery)
+                    || !restoreCachedForecast(url, locationQuery)) {
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            }
+        } catch (ForecastFormatException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
+            if (response != null) {
                 try {
-                    reader.close();
+                    response.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
+            awaitTrackedLocations(trackedLocations);
+            // The sync is done writing, so the log is copied back while the app is idle.
+            getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_CHECKPOINT, null, null);
         }
-        return;
+        Log.d(LOG_TAG, "Forecast requests: " + forecastFetcher.getRequestCount() + ", bytes: "
+                + forecastFetcher.getBytesReceived());
+        Log.d(LOG_TAG, "HTTP: " + SyncHttpClient.getInstance().report());
+        Log.d(LOG_TAG, "Forecast snapshot hits: " + ForecastSnapshot.getHitCount()
+                + ", misses: " + ForecastSnapshot.getMissCount());
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Builds the OpenWeatherMap forecast request for a location, by its coordinates when they
+     * are given.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+    private static URL buildForecastUrl(String locationQuery, String latitude, String longitude)
+            throws MalformedURLException {
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
+        if (latitude != null && longitude != null) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, latitude)
+                    .appendQueryParameter(LON_PARAM, longitude);
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        return new URL(builtUri.toString());
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Starts syncing every location of the location table but the preferred one. They are asked
+     * for by the coordinates the server gave for them, which it always understands.
+     */
+    private TrackedLocationSync.Batch startTrackedLocations(String preferredLocation) {
+        Map<String, URL> locations = new LinkedHashMap<>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " != ?",
+                new String[]{preferredLocation},
+                null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    locations.put(cursor.getString(0), buildForecastUrl(null,
+                            String.valueOf(cursor.getDouble(1)),
+                            String.valueOf(cursor.getDouble(2))));
+                }
+            } catch (MalformedURLException e) {
+                Log.e(LOG_TAG, "Error building the forecast request", e);
+            } finally {
+                cursor.close();
+            }
+        }
+        return trackedLocationSync.start(locations);
+    }
 
+    private void awaitTrackedLocations(TrackedLocationSync.Batch batch) {
+        long startNs = System.nanoTime();
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            List<TrackedLocationSync.Result> results = batch.await();
+            int synced = 0;
+            for (TrackedLocationSync.Result result : results) {
+                if (result.status == LOCATION_STATUS_OK) {
+                    synced++;
                 }
             }
+            Log.d(LOG_TAG, "Tracked locations synced: " + synced + " of " + results.size()
+                    + ", waited " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs)
+                    + "ms");
+        } catch (InterruptedException e) {
+            // The sync was canceled.
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    /**
+     * Returns true if the database has a forecast for the location from today on.
+     */
+    private boolean hasWeather(String locationSetting) {
+        ForecastSnapshot forecast = ForecastSnapshot.get(getContext(), locationSetting);
+        return forecast.getFirstDay(System.currentTimeMillis()) < forecast.getDayCount();
+    }
 
-                cVVector.add(weatherValues);
+    /**
+     * Stores the forecast of the cached response again, for instance after the database was
+     * recreated, if the response was for the same request.
+     *
+     * @return true if the cached forecast was stored.
+     */
+    private boolean restoreCachedForecast(URL url, String locationSetting) {
+        ForecastResponseCache cache = forecastFetcher.getCache();
+        ForecastResponseCache.Entry entry = cache.read();
+        if (entry == null || !entry.url.equals(url.toString()))
+            return false;
+        InputStream body = cache.openBody();
+        if (body == null)
+            return false;
+        Log.d(LOG_TAG, "Restoring the cached forecast");
+        try {
+            return getWeatherDataFromJson(new InputStreamReader(body, "UTF-8"), locationSetting,
+                    entry.receivedAtMs);
+        } catch (IOException | ForecastFormatException e) {
+            Log.e(LOG_TAG, "Error restoring the cached forecast", e);
+            cache.clear();
+            return false;
+        } finally {
+            try {
+                body.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
             }
+        }
+    }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-
-                if (googleApiClient != null && googleApiClient.isConnected())
-                    updateWearables();
-
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    /**
+     * Reads the forecast from the server response as it arrives, building the rows of the insert
+     * batch day by day, and stores it.
+     *
+     * @param receivedAtMs when the response was received, which tells the date of its first day.
+     * @return true if the forecast was stored, false if the server reported an error.
+     */
+    private boolean getWeatherDataFromJson(Reader forecastJson, String locationSetting,
+                                           long receivedAtMs)
+            throws IOException, ForecastFormatException {
+        ForecastRows rows = new ForecastRows(receivedAtMs);
+        int messageCode = ForecastJsonParser.parse(forecastJson, rows);
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
+                return false;
+            default:
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                return false;
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        // add to database
+        rows.store(getContext().getContentResolver(), locationSetting);
+        updateDailyViews();
+        // The watch moves on to the next day by itself, so it only needs a changed forecast.
+        if (rows.inserted + rows.updated > 0
+                && googleApiClient != null && googleApiClient.isConnected()) {
+            updateWearables();
         }
+        Log.d(LOG_TAG, "Sync Complete. " + rows.inserted + " Inserted, " + rows.updated
+                + " Updated, " + rows.unchanged + " Unchanged");
+        setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        return true;
+    }
+
+    /**
+     * Runs after every successful sync, whether or not the forecast changed: the widgets and
+     * Muzei show today, which may have rolled over since, and the daily notification is due by
+     * time alone.
+     */
+    private void updateDailyViews() {
+        updateWidgets();
+        updateMuzei();
+        notifyWeather();
     }
 
     private void updateWearables() {
-        String locationQuery = Utility.getPreferredLocation(getContext());
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        Cursor cursor = getContext().getContentResolver().query(weatherUri, WEARABLE_WEATHER_PROJECTION, null, null, null);
-        if (cursor == null || !cursor.moveToFirst())
+        Context context = getContext();
+        String locationQuery = Utility.getPreferredLocation(context);
+        ForecastSnapshot forecast = ForecastSnapshot.get(context, locationQuery);
+        int today = forecast.getFirstDay(System.currentTimeMillis());
+        if (today == forecast.getDayCount())
             return;
 
-        int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-        String highTemp = Utility.formatTemperature(getContext(), cursor.getDouble(INDEX_MAX_TEMP));
-        String lowTemp = Utility.formatTemperature(getContext(), cursor.getDouble(INDEX_MIN_TEMP));
-        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-
-        Bitmap weatherIcon = BitmapFactory.decodeResource(getContext().getResources(), iconId);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String sequenceKey = context.getString(R.string.pref_wear_payload_sequence);
+        int sequence = prefs.getInt(sequenceKey, 0) + 1;
+        prefs.edit().putInt(sequenceKey, sequence).commit();
+
+        int weatherId = forecast.getWeatherId(today);
+        // Dates are stored at local midnight; the watch counts days in its own local time.
+        long firstDate = forecast.getDate(today);
+        int firstDay = (int) ((firstDate + TimeZone.getDefault().getOffset(firstDate)) / DAY_IN_MILLIS);
+        wearWeatherPayload.begin(Utility.isMetric(context), sequence, firstDay,
+                forecast.getCoordLat(), forecast.getCoordLong());
+        int lastDay = Math.min(forecast.getDayCount(), today + WearWeatherPayload.MAX_DAYS);
+        for (int day = today; day < lastDay; day++) {
+            wearWeatherPayload.addDay(forecast.getWeatherId(day),
+                    forecast.getMaxTemp(day), forecast.getMinTemp(day),
+                    (int) forecast.getHumidity(day), forecast.getPressure(day),
+                    forecast.getWindSpeed(day), forecast.getDegrees(day));
+        }
 
         PutDataMapRequest mapRequest = PutDataMapRequest.create(SUNSHINE_WEATHER_PATH);
-        mapRequest.getDataMap().putString(HIGHEST_TEMPERATURE_KEY, highTemp);
-        mapRequest.getDataMap().putString(LOWEST_TEMPERATURE_KEY, lowTemp);
-        mapRequest.getDataMap().putAsset(WEATHER_ICON_KEY, bitmapToAsset(weatherIcon));
-        mapRequest.getDataMap().putLong(TIME_KEY, System.currentTimeMillis());
+        mapRequest.getDataMap().putByteArray(WEATHER_PAYLOAD_KEY, wearWeatherPayload.toByteArray());
+
+        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+        String iconName = iconId == -1 ? null : context.getResources().getResourceEntryName(iconId);
+        mapRequest.getDataMap().putString(WEATHER_ICON_NAME_KEY, iconName);
+        // Only ship the icon itself when the watch has not cached it yet.
+        if (iconName != null && !getWearableIconNames().contains(iconName)) {
+            Bitmap weatherIcon = BitmapFactory.decodeResource(context.getResources(), iconId);
+            mapRequest.getDataMap().putAsset(WEATHER_ICON_KEY, bitmapToAsset(weatherIcon));
+        }
 
-        Log.d(LOG_TAG, String.format("Sending temperature values %s %s", highTemp, lowTemp));
+        Log.d(LOG_TAG, "Sending weather payload " + sequence);
 
         PutDataRequest request = mapRequest.asPutDataRequest();
 
@@ -452,6 +435,31 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         });
     }
 
+    /**
+     * Returns the names of the weather icons that the watch reported as cached.
+     */
+    private Set<String> getWearableIconNames() {
+        Set<String> iconNames = new HashSet<>();
+        DataItemBuffer dataItems = Wearable.DataApi.getDataItems(googleApiClient).await();
+        try {
+            if (!dataItems.getStatus().isSuccess())
+                return iconNames;
+
+            for (DataItem dataItem : dataItems) {
+                if (!SUNSHINE_ICON_CACHE_PATH.equals(dataItem.getUri().getPath()))
+                    continue;
+
+                ArrayList<String> cachedIconNames = DataMapItem.fromDataItem(dataItem)
+                        .getDataMap().getStringArrayList(ICON_CACHE_KEYS_KEY);
+                if (cachedIconNames != null)
+                    iconNames.addAll(cachedIconNames);
+            }
+        } finally {
+            dataItems.release();
+        }
+        return iconNames;
+    }
+
     private static Asset bitmapToAsset(Bitmap bitmap) {
         ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
         bitmap.compress(Bitmap.CompressFormat.PNG, ICON_QUALITY_PERCENTAGE, byteStream);
@@ -493,16 +501,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                // the sync just stored it, so it's most likely in the snapshot already
+                ForecastSnapshot forecast = ForecastSnapshot.get(context, locationQuery);
+                int today = forecast.indexOfDate(System.currentTimeMillis());
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != -1) {
+                    int weatherId = forecast.getWeatherId(today);
+                    double high = forecast.getMaxTemp(today);
+                    double low = forecast.getMinTemp(today);
+                    String desc = forecast.getShortDescription(today);
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -578,7 +585,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
@@ -598,56 +604,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -0,0 +1,356 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The HTTP layer of the sync pipeline, used for the forecast and for the weather art loaded by
+ * Glide.
+ * <ul>
+ * <li>It asks for gzip or deflate bodies and decodes them itself, instead of leaving it to
+ * {@link HttpURLConnection}, so that it knows both the bytes on the wire and the decoded
+ * bytes.</li>
+ * <li>It never disconnects a connection that went well: a closed {@link Response} drains what
+ * is left of its body, which hands the connection back to the platform's keep-alive pool for the
+ * next request to the same host.</li>
+ * <li>It applies its connect and read timeouts to every request.</li>
+ * <li>It has at most a few responses open per host; more requests wait for one to close, for
+ * as long as the connect timeout.</li>
+ * </ul>
+ * It keeps byte and timing metrics per response and over all responses. Thread safe.
+ */
+public class SyncHttpClient {
+
+    private static final String LOG_TAG = SyncHttpClient.class.getSimpleName();
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(15);
+    static final int DEFAULT_READ_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(20);
+    static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+
+    /**
+     * Most of a body that is drained to keep its connection; a longer rest is cheaper to drop
+     * along with the connection.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static SyncHttpClient sInstance;
+
+    private volatile int connectTimeoutMs;
+    private volatile int readTimeoutMs;
+    private final int maxRequestsPerHost;
+    private final Map<String, Semaphore> hostPermits = new HashMap<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+    private final AtomicLong timeToFirstByteNs = new AtomicLong();
+    private final AtomicLong totalTimeNs = new AtomicLong();
+
+    /**
+     * Returns the client shared by the sync adapter and Glide, so that they share its metrics.
+     */
+    public static synchronized SyncHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncHttpClient(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS,
+                    DEFAULT_MAX_REQUESTS_PER_HOST);
+        }
+        return sInstance;
+    }
+
+    SyncHttpClient(int connectTimeoutMs, int readTimeoutMs, int maxRequestsPerHost) {
+        setTimeouts(connectTimeoutMs, readTimeoutMs);
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    /**
+     * Sends a GET request and returns once the response headers arrived. The caller reads the
+     * body, if any, and closes or aborts the response. Waits first while the host has as many
+     * open responses as allowed.
+     *
+     * @param headers request headers, as name and value pairs.
+     * @throws SocketTimeoutException if the host had no response closed within the connect
+     *                                timeout.
+     */
+    Response get(URL url, String... headers) throws IOException {
+        Semaphore permits = getPermits(url.getHost());
+        try {
+            if (!permits.tryAcquire(connectTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("Timed out waiting for " + url.getHost());
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for " + url.getHost());
+        }
+        long startNs = System.nanoTime();
+        HttpURLConnection urlConnection = null;
+        try {
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(connectTimeoutMs);
+            urlConnection.setReadTimeout(readTimeoutMs);
+            // Asking for it explicitly turns off the platform's transparent gzip, which would
+            // hide the size of the body on the wire.
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            for (int i = 0; i + 1 < headers.length; i += 2) {
+                urlConnection.setRequestProperty(headers[i], headers[i + 1]);
+            }
+            requestCount.incrementAndGet();
+            urlConnection.connect();
+
+            int code = urlConnection.getResponseCode();
+            long timeToFirstByte = System.nanoTime() - startNs;
+            timeToFirstByteNs.addAndGet(timeToFirstByte);
+            return new Response(urlConnection, permits, code, startNs, timeToFirstByte);
+        } catch (IOException | RuntimeException e) {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    private synchronized Semaphore getPermits(String host) {
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(maxRequestsPerHost, true);
+            hostPermits.put(host, permits);
+        }
+        return permits;
+    }
+
+    long getRequestCount() {
+        return requestCount.get();
+    }
+
+    long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    String report() {
+        long requests = Math.max(1, requestCount.get());
+        return String.format(Locale.US,
+                "requests=%d wireBytes=%d decodedBytes=%d meanTtfb=%dms meanTotal=%dms",
+                requestCount.get(), wireBytes.get(), decodedBytes.get(),
+                TimeUnit.NANOSECONDS.toMillis(timeToFirstByteNs.get() / requests),
+                TimeUnit.NANOSECONDS.toMillis(totalTimeNs.get() / requests));
+    }
+
+    /**
+     * A response whose headers arrived. Its body is decoded as it is read.
+     */
+    final class Response implements Closeable {
+
+        private final HttpURLConnection urlConnection;
+        private final Semaphore permits;
+        private final int code;
+        private final long startNs;
+        private final long timeToFirstByteNs;
+        private final CountingInputStream wireStream;
+        private final CountingInputStream decodedStream;
+        private long totalTimeNs;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Response(HttpURLConnection urlConnection, Semaphore permits, int code,
+                         long startNs, long timeToFirstByteNs) throws IOException {
+            this.urlConnection = urlConnection;
+            this.permits = permits;
+            this.code = code;
+            this.startNs = startNs;
+            this.timeToFirstByteNs = timeToFirstByteNs;
+
+            InputStream raw = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? urlConnection.getErrorStream() : urlConnection.getInputStream();
+            if (raw == null || code == HttpURLConnection.HTTP_NOT_MODIFIED
+                    || code == HttpURLConnection.HTTP_NO_CONTENT) {
+                wireStream = null;
+                decodedStream = null;
+                return;
+            }
+            wireStream = new CountingInputStream(raw);
+            String encoding = urlConnection.getContentEncoding();
+            InputStream decoded;
+            if ("gzip".equalsIgnoreCase(encoding)) {
+                decoded = new GZIPInputStream(wireStream);
+            } else if ("deflate".equalsIgnoreCase(encoding)) {
+                decoded = new InflaterInputStream(wireStream);
+            } else {
+                decoded = wireStream;
+            }
+            decodedStream = new CountingInputStream(decoded);
+        }
+
+        int getCode() {
+            return code;
+        }
+
+        String getHeader(String name) {
+            return urlConnection.getHeaderField(name);
+        }
+
+        /**
+         * Returns the decoded body, which is empty for a 304 or when there is none.
+         */
+        InputStream getBody() {
+            return decodedStream != null ? decodedStream : new EmptyInputStream();
+        }
+
+        long getWireBytes() {
+            return wireStream != null ? wireStream.count : 0;
+        }
+
+        long getDecodedBytes() {
+            return decodedStream != null ? decodedStream.count : 0;
+        }
+
+        long getTimeToFirstByteNs() {
+            return timeToFirstByteNs;
+        }
+
+        /**
+         * Returns the time from the request to the close of the response.
+         */
+        long getTotalTimeNs() {
+            return totalTimeNs;
+        }
+
+        /**
+         * Drains what is left of a short body and closes it, so that the connection can be
+         * reused, and records the metrics of the response.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!closed.compareAndSet(false, true))
+                return;
+            boolean reusable = true;
+            try {
+                if (decodedStream != null && !decodedStream.closed) {
+                    reusable = drain(decodedStream);
+                    decodedStream.close();
+                }
+            } catch (IOException e) {
+                reusable = false;
+                throw e;
+            } finally {
+                if (!reusable) {
+                    urlConnection.disconnect();
+                }
+                finish();
+            }
+        }
+
+        /**
+         * Drops the connection without reading any more of the body, and frees its place for
+         * the next request to the host. Unlike {@link #close()} it never blocks, so it can be
+         * called from another thread to cancel a response that is being read.
+         */
+        void abort() {
+            if (!closed.compareAndSet(false, true))
+                return;
+            try {
+                urlConnection.disconnect();
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            permits.release();
+            totalTimeNs = System.nanoTime() - startNs;
+            SyncHttpClient.this.totalTimeNs.addAndGet(totalTimeNs);
+            wireBytes.addAndGet(getWireBytes());
+            decodedBytes.addAndGet(getDecodedBytes());
+            Log.d(LOG_TAG, String.format(Locale.US,
+                    "%s %d wire=%d decoded=%d ttfb=%dms total=%dms",
+                    urlConnection.getURL().getHost(), code, getWireBytes(),
+                    getDecodedBytes(), TimeUnit.NANOSECONDS.toMillis(timeToFirstByteNs),
+                    TimeUnit.NANOSECONDS.toMillis(totalTimeNs)));
+        }
+
+        private boolean drain(InputStream in) throws IOException {
+            byte[] buffer = new byte[4096];
+            long drained = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAIN_BYTES)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        long count;
+        boolean closed;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long length) throws IOException {
+            long skipped = super.skip(length);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static final class EmptyInputStream extends InputStream {
+
+        @Override
+        public int read() {
+            return -1;
+        }
+    }
+}
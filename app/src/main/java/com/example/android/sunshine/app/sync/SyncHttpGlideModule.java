@@ -0,0 +1,116 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GenericLoaderFactory;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+import com.bumptech.glide.module.GlideModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Makes Glide download the weather art with {@link SyncHttpClient}, so that art loads share its
+ * connections, timeouts and metrics with the sync. Declared in the manifest.
+ * <p>
+ * The loader replaces Glide's own for every URL the app loads, so the art shown by the forecast
+ * list and the detail screen goes through it too, along with the art of the notification and the
+ * widgets. All of it comes from the art pack's host, so it shares that host's open responses
+ * with itself only, never with the forecast requests of the sync.
+ */
+public class SyncHttpGlideModule implements GlideModule {
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        glide.register(GlideUrl.class, InputStream.class, new Factory());
+    }
+
+    private static class Factory implements ModelLoaderFactory<GlideUrl, InputStream> {
+
+        @Override
+        public ModelLoader<GlideUrl, InputStream> build(Context context,
+                                                        GenericLoaderFactory factories) {
+            return new Loader();
+        }
+
+        @Override
+        public void teardown() {
+        }
+    }
+
+    private static class Loader implements StreamModelLoader<GlideUrl> {
+
+        @Override
+        public DataFetcher<InputStream> getResourceFetcher(GlideUrl model, int width, int height) {
+            return new Fetcher(model);
+        }
+    }
+
+    private static class Fetcher implements DataFetcher<InputStream> {
+
+        private final GlideUrl model;
+        // Set on Glide's worker, and canceled from the main thread.
+        private volatile SyncHttpClient.Response response;
+        private volatile boolean canceled;
+
+        Fetcher(GlideUrl model) {
+            this.model = model;
+        }
+
+        @Override
+        public InputStream loadData(Priority priority) throws Exception {
+            SyncHttpClient.Response response = SyncHttpClient.getInstance().get(model.toURL());
+            this.response = response;
+            if (canceled) {
+                // Canceled while waiting for the host, before there was anything to abort.
+                response.abort();
+                throw new IOException("Canceled loading " + model);
+            }
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected HTTP " + response.getCode() + " for " + model);
+            }
+            return response.getBody();
+        }
+
+        @Override
+        public void cleanup() {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    // Ignored, the image was already decoded or failed.
+                }
+            }
+        }
+
+        @Override
+        public String getId() {
+            return model.toString();
+        }
+
+        /**
+         * Drops the connection of an abandoned load right away, so that its place for the host
+         * is free even if Glide never gets to {@link #cleanup()}.
+         */
+        @Override
+        public void cancel() {
+            canceled = true;
+            SyncHttpClient.Response response = this.response;
+            if (response != null) {
+                response.abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.util.Log;
+
+import com.example.android.sunshine.app.forecast.ForecastFormatException;
+import com.example.android.sunshine.app.forecast.ForecastJsonParser;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs the forecasts of several locations at once, on a small pool of threads. Each location is
+ * fetched, parsed as it arrives and stored in one batch, on its own. How many requests go to the
+ * same host at once is up to {@link SyncHttpClient}.
+ * <p>
+ * The sync adapter uses it for the tracked locations, the ones in the location table other than
+ * the preferred one, which it syncs itself meanwhile.
+ */
+class TrackedLocationSync {
+
+    private static final String LOG_TAG = TrackedLocationSync.class.getSimpleName();
+
+    /**
+     * One less than the requests {@link SyncHttpClient} lets through to a host, so that the
+     * preferred location, fetched by the sync adapter meanwhile, never waits behind the tracked
+     * ones.
+     */
+    static final int DEFAULT_THREAD_COUNT = SyncHttpClient.DEFAULT_MAX_REQUESTS_PER_HOST - 1;
+
+    private final ContentResolver contentResolver;
+    private final SyncHttpClient httpClient;
+    private final int threadCount;
+
+    TrackedLocationSync(ContentResolver contentResolver, SyncHttpClient httpClient,
+                        int threadCount) {
+        this.contentResolver = contentResolver;
+        this.httpClient = httpClient;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * How the sync of a location went, and how long each of its steps took.
+     */
+    static final class Result {
+
+        final String locationSetting;
+        @SunshineSyncAdapter.LocationStatus
+        final int status;
+        final int rowCount;
+        /**
+         * Until the response headers arrived, including any wait for the host.
+         */
+        final long fetchNs;
+        /**
+         * Reading and parsing the body, which arrives as it is parsed.
+         */
+        final long parseNs;
+        final long storeNs;
+
+        Result(String locationSetting, @SunshineSyncAdapter.LocationStatus int status,
+               int rowCount, long fetchNs, long parseNs, long storeNs) {
+            this.locationSetting = locationSetting;
+            this.status = status;
+            this.rowCount = rowCount;
+            this.fetchNs = fetchNs;
+            this.parseNs = parseNs;
+            this.storeNs = storeNs;
+        }
+
+        long getTotalNs() {
+            return fetchNs + parseNs + storeNs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s status=%d rows=%d fetch=%dms parse=%dms store=%dms", locationSetting,
+                    status, rowCount, TimeUnit.NANOSECONDS.toMillis(fetchNs),
+                    TimeUnit.NANOSECONDS.toMillis(parseNs),
+                    TimeUnit.NANOSECONDS.toMillis(storeNs));
+        }
+    }
+
+    /**
+     * The syncs started by {@link #start(Map)}.
+     */
+    final class Batch {
+
+        private final ExecutorService executor;
+        private final List<Future<Result>> futures;
+        private final List<String> locationSettings;
+
+        private Batch(ExecutorService executor, List<Future<Result>> futures,
+                      List<String> locationSettings) {
+            this.executor = executor;
+            this.futures = futures;
+            this.locationSettings = locationSettings;
+        }
+
+        /**
+         * Waits for all the locations, and returns their results in the order they were given.
+         */
+        List<Result> await() throws InterruptedException {
+            List<Result> results = new ArrayList<>(futures.size());
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        results.add(futures.get(i).get());
+                    } catch (ExecutionException e) {
+                        Log.e(LOG_TAG, "Error syncing " + locationSettings.get(i), e.getCause());
+                        results.add(new Result(locationSettings.get(i),
+                                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, 0, 0, 0, 0));
+                    }
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                throw e;
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Starts syncing the locations, given by location setting with their forecast request.
+     */
+    Batch start(Map<String, URL> locations) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threadCount, locations.size())));
+        List<Future<Result>> futures = new ArrayList<>(locations.size());
+        List<String> locationSettings = new ArrayList<>(locations.size());
+        for (final Map.Entry<String, URL> location : locations.entrySet()) {
+            locationSettings.add(location.getKey());
+            futures.add(executor.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return sync(location.getKey(), location.getValue());
+                }
+            }));
+        }
+        // The threads end once the queue is empty.
+        executor.shutdown();
+        return new Batch(executor, futures, locationSettings);
+    }
+
+    private Result sync(String locationSetting, URL url) {
+        long startNs = System.nanoTime();
+        long fetchNs = 0;
+        long parseNs = 0;
+        long storeNs = 0;
+        int status;
+        int rowCount = 0;
+        SyncHttpClient.Response response = null;
+        try {
+            response = httpClient.get(url);
+            fetchNs = System.nanoTime() - startNs;
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected HTTP " + response.getCode() + " for " + url);
+            }
+
+            ForecastRows rows = new ForecastRows(System.currentTimeMillis());
+            int messageCode = ForecastJsonParser.parse(
+                    new InputStreamReader(response.getBody(), "UTF-8"), rows);
+            parseNs = System.nanoTime() - startNs - fetchNs;
+            switch (messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    rowCount = rows.store(contentResolver, locationSetting);
+                    storeNs = System.nanoTime() - startNs - fetchNs - parseNs;
+                    status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    break;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error syncing " + locationSetting, e);
+            status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (ForecastFormatException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+        if (fetchNs == 0) {
+            fetchNs = System.nanoTime() - startNs;
+        }
+        Result result = new Result(locationSetting, status, rowCount, fetchNs, parseNs, storeNs);
+        Log.d(LOG_TAG, result.toString());
+        return result;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.sunshine.app.sync;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes the forecast sent to the watch face as a compact, versioned binary payload, instead of
+ * preformatted strings.  The watch decodes it and formats the temperatures itself.
+ * <p>
+ * Layout, big endian:
+ * <pre>
+ *   byte   version
+ *   byte   flags            bit 0 set when the user prefers metric units
+ *   int    sequence number
+ *   int    first day        local date of the first forecast day, in days since the epoch
+ *   byte   day count
+ *   float  latitude         of the forecast location, since version 2
+ *   float  longitude
+ *   day count times:
+ *     short  weather id
+ *     short  max temperature, tenths of a degree Celsius
+ *     short  min temperature, tenths of a degree Celsius
+ *     byte   humidity, percent                         since version 2
+ *     short  pressure, tenths of a hectopascal         since version 2
+ *     short  wind speed, tenths of the stored unit     since version 2
+ *     short  wind direction, degrees                   since version 2
+ * </pre>
+ * An instance reuses its buffer between syncs, so it must only be used from the sync thread.
+ */
+class WearWeatherPayload {
+
+    static final byte VERSION = 2;
+    static final int FLAG_METRIC = 1;
+    static final int MAX_DAYS = 14;
+
+    private static final int DAY_COUNT_OFFSET = 1 + 1 + 4 + 4;
+    private static final int HEADER_SIZE = DAY_COUNT_OFFSET + 1 + 4 + 4;
+    private static final int DAY_SIZE = 2 + 2 + 2 + 1 + 2 + 2 + 2;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + MAX_DAYS * DAY_SIZE);
+
+    /**
+     * Starts a new payload. Days are then appended in order with {@link #addDay} and the result
+     * is read with {@link #toByteArray()}.
+     */
+    void begin(boolean metric, int sequence, int firstDay, double latitude, double longitude) {
+        buffer.clear();
+        buffer.put(VERSION);
+        buffer.put((byte) (metric ? FLAG_METRIC : 0));
+        buffer.putInt(sequence);
+        buffer.putInt(firstDay);
+        buffer.put((byte) 0);
+        buffer.putFloat((float) latitude);
+        buffer.putFloat((float) longitude);
+    }
+
+    /**
+     * Appends a forecast day, with its temperatures in degrees Celsius and the other values in
+     * the units the provider stores them in.
+     *
+     * @return false if the payload is already full.
+     */
+    boolean addDay(int weatherId, double high, double low, int humidity, double pressure,
+                   double windSpeed, double windDirection) {
+        if (buffer.remaining() < DAY_SIZE) {
+            return false;
+        }
+        buffer.putShort((short) weatherId);
+        buffer.putShort(toFixedPoint(high));
+        buffer.putShort(toFixedPoint(low));
+        buffer.put((byte) Math.max(0, Math.min(humidity, 100)));
+        buffer.putShort(toFixedPoint(pressure));
+        buffer.putShort(toFixedPoint(windSpeed));
+        buffer.putShort((short) Math.round(windDirection));
+        buffer.put(DAY_COUNT_OFFSET, (byte) (buffer.get(DAY_COUNT_OFFSET) + 1));
+        return true;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    static short toFixedPoint(double temperature) {
+        return (short) Math.round(temperature * 10);
+    }
+}
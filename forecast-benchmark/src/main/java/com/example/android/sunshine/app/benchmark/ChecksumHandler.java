@@ -0,0 +1,32 @@
+package com.example.android.sunshine.app.benchmark;
+
+import com.example.android.sunshine.app.forecast.ForecastHandler;
+
+/**
+ * Folds every value it receives into a checksum, so that the parsing cannot be optimized away and
+ * both parsers can be checked to read the same values.
+ */
+final class ChecksumHandler implements ForecastHandler {
+
+    int days;
+    double checksum;
+
+    void reset() {
+        days = 0;
+        checksum = 0;
+    }
+
+    @Override
+    public void onCity(String name, double latitude, double longitude) {
+        checksum += name.length() + latitude + longitude;
+    }
+
+    @Override
+    public void onDay(int index, double pressure, int humidity, double windSpeed,
+                      double windDirection, double high, double low, String description,
+                      int weatherId) {
+        days++;
+        checksum += index + pressure + humidity + windSpeed + windDirection + high + low
+                + description.length() + weatherId;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.android.sunshine.app.benchmark;
+
+import com.example.android.sunshine.app.forecast.ForecastHandler;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * The way the sync adapter used to read a forecast: the whole response is read line by line into
+ * a buffer, then parsed into an {@code org.json} object tree the values are picked from.
+ */
+final class DomForecastParser {
+
+    private DomForecastParser() {
+    }
+
+    static int parse(InputStream inputStream, ForecastHandler handler)
+            throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+        if (forecastJson.has("cod")) {
+            int errorCode = forecastJson.getInt("cod");
+            if (errorCode != 200) {
+                return errorCode;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        JSONObject cityCoord = cityJson.getJSONObject("coord");
+        handler.onCity(cityJson.getString("name"), cityCoord.getDouble("lat"),
+                cityCoord.getDouble("lon"));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+            handler.onDay(i, dayForecast.getDouble("pressure"), dayForecast.getInt("humidity"),
+                    dayForecast.getDouble("speed"), dayForecast.getDouble("deg"),
+                    temperatureObject.getDouble("max"), temperatureObject.getDouble("min"),
+                    weatherObject.getString("main"), weatherObject.getInt("id"));
+        }
+        return 200;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.sunshine.app.benchmark;
+
+import com.example.android.sunshine.app.forecast.ForecastJsonParser;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading a forecast response with {@link ForecastJsonParser} against the object tree
+ * parsing the sync adapter used before, see {@link DomForecastParser}.
+ * <p>
+ * The responses are read from memory, as the bytes would come from the connection. The 14 day
+ * response is the one the app requests, in {@code forecast_14_days.json}; the larger ones repeat
+ * its days, to show how the cost of each parser grows with the size of the response. The GC
+ * profiler run by the {@code jmh} task reports the bytes allocated per response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForecastParserBenchmark {
+
+    private static final String RECORDED_RESPONSE = "/forecast_14_days.json";
+
+    @Param({"14", "140", "1400"})
+    public int days;
+
+    private byte[] response;
+    private final ChecksumHandler handler = new ChecksumHandler();
+
+    @Setup
+    public void setUp() throws Exception {
+        JSONObject forecast = new JSONObject(new String(readResource(), "UTF-8"));
+        JSONArray recordedDays = forecast.getJSONArray("list");
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < days; i++) {
+            list.put(recordedDays.get(i % recordedDays.length()));
+        }
+        forecast.put("list", list);
+        forecast.put("cnt", days);
+        response = forecast.toString().getBytes("UTF-8");
+
+        // Both parsers have to read the same values for the comparison to mean anything.
+        double streamingChecksum = streaming();
+        int streamingDays = handler.days;
+        double domChecksum = dom();
+        if (streamingDays != days || handler.days != days
+                || Math.abs(streamingChecksum - domChecksum) > 1e-6) {
+            throw new IllegalStateException("The parsers disagree on the forecast");
+        }
+    }
+
+    @Benchmark
+    public double streaming() throws Exception {
+        handler.reset();
+        ForecastJsonParser.parse(
+                new InputStreamReader(new ByteArrayInputStream(response), "UTF-8"), handler);
+        return handler.checksum;
+    }
+
+    @Benchmark
+    public double dom() throws Exception {
+        handler.reset();
+        DomForecastParser.parse(new ByteArrayInputStream(response), handler);
+        return handler.checksum;
+    }
+
+    private static byte[] readResource() throws IOException {
+        InputStream in = ForecastParserBenchmark.class.getResourceAsStream(RECORDED_RESPONSE);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.android.sunshine.app.forecast;
+
+/**
+ * Thrown when a forecast response is not valid JSON or lacks a value the app needs, as opposed
+ * to an {@link java.io.IOException} of the connection it is read from.
+ */
+public class ForecastFormatException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public ForecastFormatException(String message) {
+        super(message);
+    }
+
+    public ForecastFormatException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.android.sunshine.app.forecast;
+
+/**
+ * Receives the values of a forecast response as {@link ForecastJsonParser} reads them, so that
+ * the caller can build its rows without the response ever being held in memory.
+ */
+public interface ForecastHandler {
+
+    /**
+     * Called once, with the city the forecast is for. It may come before or after the days.
+     */
+    void onCity(String name, double latitude, double longitude);
+
+    /**
+     * Called for each day of the forecast, in order, {@code index} 0 being today.
+     *
+     * @param pressure      in hectopascals.
+     * @param humidity      in percent.
+     * @param windSpeed     in the units requested from the server.
+     * @param windDirection in degrees, meteorological.
+     * @param high          in the units requested from the server.
+     * @param low           in the units requested from the server.
+     * @param description   short description of the weather, e.g "Clear".
+     * @param weatherId     condition code of the weather.
+     */
+    void onDay(int index, double pressure, int humidity, double windSpeed, double windDirection,
+               double high, double low, String description, int weatherId);
+}
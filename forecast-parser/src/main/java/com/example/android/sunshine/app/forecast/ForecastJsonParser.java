@@ -0,0 +1,303 @@
+package com.example.android.sunshine.app.forecast;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser of the OpenWeatherMap daily forecast response.
+ * <p>
+ * It reads the response straight from the connection and hands the dozen values the app keeps
+ * to a {@link ForecastHandler}, skipping everything else. Unlike building a JSON object tree of
+ * the whole response, its memory use does not grow with the size of the response, only with what
+ * the handler keeps. The values are read like {@code org.json} reads them: numbers may be quoted
+ * and the humidity may have a fraction, which is dropped.
+ */
+public final class ForecastJsonParser {
+
+    /**
+     * Message code of a successful response, and the one assumed when a response has none.
+     */
+    public static final int CODE_OK = 200;
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Values a day must have, as bits of a mask.
+    private static final int DAY_PRESSURE = 1;
+    private static final int DAY_HUMIDITY = 1 << 1;
+    private static final int DAY_WIND_SPEED = 1 << 2;
+    private static final int DAY_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_MAX = 1 << 4;
+    private static final int DAY_MIN = 1 << 5;
+    private static final int DAY_DESCRIPTION = 1 << 6;
+    private static final int DAY_WEATHER_ID = 1 << 7;
+    private static final int DAY_COMPLETE = (1 << 8) - 1;
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Reads a forecast response. The days and the city are passed to the handler as they are
+     * read; the reader is left open.
+     *
+     * @return the message code of the response, {@link #CODE_OK} unless the server reported an
+     * error, in which case the handler may not have been called at all.
+     * @throws IOException             if the reader fails, including when it ends early, even in
+     *                                 the middle of a value.
+     * @throws ForecastFormatException if the response is not valid JSON, or if a successful
+     *                                 response lacks a value.
+     */
+    public static int parse(Reader in, ForecastHandler handler)
+            throws IOException, ForecastFormatException {
+        EndTrackingReader source = new EndTrackingReader(in);
+        JsonReader reader = new JsonReader(source);
+        try {
+            return readForecast(reader, handler);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            if (source.ended) {
+                // The parser never reads past the end of a whole response, so this one was cut
+                // off, like by a dropped connection, in the middle of a string or a number.
+                EOFException eof = new EOFException("Forecast response ended early");
+                eof.initCause(e);
+                throw eof;
+            }
+            throw new ForecastFormatException(e);
+        }
+    }
+
+    private static int readForecast(JsonReader reader, ForecastHandler handler)
+            throws IOException, ForecastFormatException {
+        int code = CODE_OK;
+        boolean hasCity = false;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case OWM_MESSAGE_CODE:
+                    code = Integer.parseInt(reader.nextString());
+                    break;
+                case OWM_CITY:
+                    readCity(reader, handler);
+                    hasCity = true;
+                    break;
+                case OWM_LIST:
+                    readDays(reader, handler);
+                    hasList = true;
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (code == CODE_OK && (!hasCity || !hasList)) {
+            throw new ForecastFormatException(
+                    "Forecast without " + (hasCity ? OWM_LIST : OWM_CITY));
+        }
+        return code;
+    }
+
+    private static void readCity(JsonReader reader, ForecastHandler handler)
+            throws IOException, ForecastFormatException {
+        String name = null;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case OWM_CITY_NAME:
+                    name = reader.nextString();
+                    break;
+                case OWM_COORD:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case OWM_LATITUDE:
+                                latitude = reader.nextDouble();
+                                break;
+                            case OWM_LONGITUDE:
+                                longitude = reader.nextDouble();
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (name == null || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            throw new ForecastFormatException("Incomplete " + OWM_CITY);
+        }
+        handler.onCity(name, latitude, longitude);
+    }
+
+    private static void readDays(JsonReader reader, ForecastHandler handler)
+            throws IOException, ForecastFormatException {
+        reader.beginArray();
+        for (int index = 0; reader.hasNext(); index++) {
+            readDay(reader, handler, index);
+        }
+        reader.endArray();
+    }
+
+    private static void readDay(JsonReader reader, ForecastHandler handler, int index)
+            throws IOException, ForecastFormatException {
+        int values = 0;
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double high = 0;
+        double low = 0;
+        String description = null;
+        int weatherId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case OWM_PRESSURE:
+                    pressure = reader.nextDouble();
+                    values |= DAY_PRESSURE;
+                    break;
+                case OWM_HUMIDITY:
+                    humidity = (int) reader.nextDouble();
+                    values |= DAY_HUMIDITY;
+                    break;
+                case OWM_WINDSPEED:
+                    windSpeed = reader.nextDouble();
+                    values |= DAY_WIND_SPEED;
+                    break;
+                case OWM_WIND_DIRECTION:
+                    windDirection = reader.nextDouble();
+                    values |= DAY_WIND_DIRECTION;
+                    break;
+                case OWM_TEMPERATURE:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case OWM_MAX:
+                                high = reader.nextDouble();
+                                values |= DAY_MAX;
+                                break;
+                            case OWM_MIN:
+                                low = reader.nextDouble();
+                                values |= DAY_MIN;
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case OWM_WEATHER:
+                    // Only the first element of the "weather" array describes the day.
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case OWM_DESCRIPTION:
+                                    description = reader.nextString();
+                                    values |= DAY_DESCRIPTION;
+                                    break;
+                                case OWM_WEATHER_ID:
+                                    weatherId = (int) reader.nextDouble();
+                                    values |= DAY_WEATHER_ID;
+                                    break;
+                                default:
+                                    reader.skipValue();
+                                    break;
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (values != DAY_COMPLETE) {
+            throw new ForecastFormatException("Incomplete day " + index + " of the forecast");
+        }
+        handler.onDay(index, pressure, humidity, windSpeed, windDirection, high, low,
+                description, weatherId);
+    }
+
+    /**
+     * Remembers whether the end of the input was reached.
+     */
+    private static final class EndTrackingReader extends FilterReader {
+
+        boolean ended;
+
+        EndTrackingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c == -1) {
+                ended = true;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read == -1) {
+                ended = true;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.sunshine.app.forecast;
+
+import junit.framework.TestCase;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastJsonParser extends TestCase {
+
+    private static final String CITY = "\"city\":{\"id\":5375480,\"name\":\"Mountain View\","
+            + "\"coord\":{\"lon\":-122.08,\"lat\":37.39},\"country\":\"US\"}";
+    private static final String DAY_0 = "{\"dt\":1469102400,"
+            + "\"temp\":{\"day\":18.5,\"min\":11.5,\"max\":21.25,\"night\":12.1},"
+            + "\"pressure\":1013.2,\"humidity\":72,"
+            + "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"clear sky\","
+            + "\"icon\":\"01d\"}],\"speed\":3.1,\"deg\":270,\"clouds\":0}";
+    private static final String DAY_1 = "{\"dt\":1469188800,"
+            + "\"temp\":{\"day\":17.0,\"min\":10.0,\"max\":19.5,\"night\":11.0},"
+            + "\"pressure\":1011.8,\"humidity\":80,"
+            + "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\","
+            + "\"icon\":\"10d\"}],\"speed\":5.2,\"deg\":180,\"clouds\":75,\"rain\":1.4}";
+    private static final String FORECAST = "{" + CITY + ",\"cod\":\"200\",\"message\":0.01,"
+            + "\"cnt\":2,\"list\":[" + DAY_0 + "," + DAY_1 + "]}";
+
+    private RecordingHandler handler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        handler = new RecordingHandler();
+    }
+
+    public void testForecastIsRead() throws Exception {
+        assertEquals(ForecastJsonParser.CODE_OK, parse(FORECAST));
+
+        assertEquals(1, handler.cities.size());
+        assertEquals("city Mountain View 37.39 -122.08", handler.cities.get(0));
+        assertEquals(2, handler.days.size());
+        assertEquals("day 0 1013.2 72 3.1 270.0 21.25 11.5 Clear 800", handler.days.get(0));
+        assertEquals("day 1 1011.8 80 5.2 180.0 19.5 10.0 Rain 500", handler.days.get(1));
+    }
+
+    public void testUnknownAndReorderedFieldsAreSkipped() throws Exception {
+        // The list before the city and the code, values in another order, values the parser
+        // does not know of, nested or not, and a second weather element.
+        String day = "{\"extra\":{\"nested\":[1,{\"a\":null}]},\"weather\":[{\"main\":\"Clouds\","
+                + "\"id\":803},{\"main\":\"Rain\",\"id\":500}],\"deg\":90,\"speed\":1.5,"
+                + "\"temp\":{\"max\":15,\"min\":5},\"humidity\":60,\"pressure\":1000,"
+                + "\"flags\":[true,false]}";
+        String json = "{\"list\":[" + day + "],\"unknown\":\"value\"," + CITY
+                + ",\"cod\":200}";
+
+        assertEquals(ForecastJsonParser.CODE_OK, parse(json));
+
+        assertEquals("city Mountain View 37.39 -122.08", handler.cities.get(0));
+        assertEquals("day 0 1000.0 60 1.5 90.0 15.0 5.0 Clouds 803", handler.days.get(0));
+    }
+
+    public void testValuesAreReadLikeOrgJson() throws Exception {
+        // Quoted numbers, and a humidity with a fraction.
+        String day = "{\"pressure\":\"1013.2\",\"humidity\":72.6,\"speed\":\"3.1\",\"deg\":270,"
+                + "\"temp\":{\"max\":\"21.25\",\"min\":11.5},"
+                + "\"weather\":[{\"id\":\"800\",\"main\":\"Clear\"}]}";
+
+        parse("{" + CITY + ",\"list\":[" + day + "]}");
+
+        assertEquals("day 0 1013.2 72 3.1 270.0 21.25 11.5 Clear 800", handler.days.get(0));
+    }
+
+    public void testErrorCodeIsReturned() throws Exception {
+        assertEquals(404, parse("{\"cod\":\"404\",\"message\":\"city not found\"}"));
+
+        assertTrue(handler.cities.isEmpty());
+        assertTrue(handler.days.isEmpty());
+    }
+
+    public void testMissingCityIsAFormatError() throws Exception {
+        assertFormatError("{\"cod\":\"200\",\"list\":[" + DAY_0 + "]}");
+    }
+
+    public void testMissingListIsAFormatError() throws Exception {
+        assertFormatError("{" + CITY + ",\"cod\":\"200\"}");
+    }
+
+    public void testIncompleteCityIsAFormatError() throws Exception {
+        assertFormatError("{\"city\":{\"name\":\"Mountain View\"},\"list\":[]}");
+    }
+
+    public void testIncompleteDayIsAFormatError() throws Exception {
+        String day = DAY_0.replace("\"max\":21.25,", "");
+
+        assertFormatError("{" + CITY + ",\"list\":[" + DAY_1 + "," + day + "]}");
+        // The days before it were read all the same.
+        assertEquals(1, handler.days.size());
+    }
+
+    public void testDayWithoutWeatherIsAFormatError() throws Exception {
+        String day = DAY_0.replaceAll("\"weather\":\\[.*?\\]", "\"weather\":[]");
+
+        assertFormatError("{" + CITY + ",\"list\":[" + day + "]}");
+    }
+
+    public void testNonNumericValueIsAFormatError() throws Exception {
+        assertFormatError("{" + CITY + ",\"list\":[" + DAY_0.replace("72", "\"high\"") + "]}");
+    }
+
+    public void testMalformedJsonIsAFormatError() throws Exception {
+        assertFormatError("{" + CITY + ",\"list\":[" + DAY_0 + "}");
+        assertFormatError("<html>Bad gateway</html>");
+    }
+
+    public void testTruncatedInputIsAnIOException() throws Exception {
+        // Like a connection that drops anywhere in the response, within a value or not.
+        for (int length = 0; length < FORECAST.length(); length++) {
+            handler = new RecordingHandler();
+            try {
+                parse(FORECAST.substring(0, length));
+                fail("Error: A response cut after " + length + " chars was read");
+            } catch (EOFException expected) {
+            }
+        }
+    }
+
+    private int parse(String json) throws IOException, ForecastFormatException {
+        return ForecastJsonParser.parse(new StringReader(json), handler);
+    }
+
+    private void assertFormatError(String json) throws IOException {
+        try {
+            parse(json);
+            fail("Error: An invalid response was read: " + json);
+        } catch (ForecastFormatException expected) {
+        }
+    }
+
+    /**
+     * Keeps what it is given, as text.
+     */
+    private static class RecordingHandler implements ForecastHandler {
+
+        final List<String> cities = new ArrayList<>();
+        final List<String> days = new ArrayList<>();
+
+        @Override
+        public void onCity(String name, double latitude, double longitude) {
+            cities.add("city " + name + " " + latitude + " " + longitude);
+        }
+
+        @Override
+        public void onDay(int index, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low, String description,
+                          int weatherId) {
+            days.add("day " + index + " " + pressure + " " + humidity + " " + windSpeed + " "
+                    + windDirection + " " + high + " " + low + " " + description + " "
+                    + weatherId);
+        }
+    }
+}
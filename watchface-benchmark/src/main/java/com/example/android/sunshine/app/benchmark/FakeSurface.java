@@ -0,0 +1,41 @@
+package com.example.android.sunshine.app.benchmark;
+
+import com.example.android.sunshine.app.layout.Surface;
+
+/**
+ * Canvas stand-in that only folds what it is asked to draw into a checksum, so that the
+ * benchmarks measure the layout itself and the JIT cannot drop any of it.
+ */
+class FakeSurface implements Surface {
+
+    private long checksum;
+
+    @Override
+    public void drawText(int style, char[] text, int start, int count, float x, float y) {
+        for (int i = start; i < start + count; i++) {
+            checksum = checksum * 31 + text[i];
+        }
+        fold(style, x, y);
+    }
+
+    @Override
+    public void drawText(int style, String text, float x, float y) {
+        checksum = checksum * 31 + text.length();
+        fold(style, x, y);
+    }
+
+    @Override
+    public void drawIcon(float x, float y) {
+        fold(-1, x, y);
+    }
+
+    long getChecksum() {
+        return checksum;
+    }
+
+    private void fold(int style, float x, float y) {
+        checksum = checksum * 31 + style;
+        checksum = checksum * 31 + Float.floatToIntBits(x);
+        checksum = checksum * 31 + Float.floatToIntBits(y);
+    }
+}
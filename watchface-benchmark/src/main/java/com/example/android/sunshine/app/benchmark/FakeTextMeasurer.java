@@ -0,0 +1,50 @@
+package com.example.android.sunshine.app.benchmark;
+
+import com.example.android.sunshine.app.layout.TextMeasurer;
+import com.example.android.sunshine.app.layout.WatchFaceLayout;
+
+/**
+ * Approximates the widths of a sans serif font without any rendering library: digits share a
+ * width, other Latin characters are a bit narrower and the rest, such as CJK, is full width.
+ */
+class FakeTextMeasurer implements TextMeasurer {
+
+    private final float[] textSizes = new float[WatchFaceLayout.TEXT_STYLE_COUNT];
+
+    FakeTextMeasurer() {
+        textSizes[WatchFaceLayout.TEXT_HOUR] = 40;
+        textSizes[WatchFaceLayout.TEXT_MINUTE] = 40;
+        textSizes[WatchFaceLayout.TEXT_COLON] = 40;
+        textSizes[WatchFaceLayout.TEXT_DATE] = 16;
+        textSizes[WatchFaceLayout.TEXT_HIGHEST_TEMPERATURE] = 24;
+        textSizes[WatchFaceLayout.TEXT_LOWEST_TEMPERATURE] = 24;
+    }
+
+    @Override
+    public float measureText(int style, char[] text, int start, int count) {
+        float width = 0;
+        for (int i = start; i < start + count; i++) {
+            width += charWidth(text[i]);
+        }
+        return width * textSizes[style];
+    }
+
+    @Override
+    public float measureText(int style, String text) {
+        float width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            width += charWidth(text.charAt(i));
+        }
+        return width * textSizes[style];
+    }
+
+    private static float charWidth(char c) {
+        if (c >= '0' && c <= '9') {
+            return 0.56f;
+        }
+        if (c < 0x0100) {
+            return c == ' ' || c == ':' || c == ',' ? 0.28f : 0.5f;
+        }
+        return 1f;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.sunshine.app.benchmark;
+
+import com.example.android.sunshine.app.layout.WatchFaceLayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the watch face layout over simulated frames, one benchmark call per frame.
+ * <ul>
+ * <li>{@link #frame()} follows the interactive update rate, two frames a second with the colon
+ * blinking, so a minute rolls over every 120 frames.</li>
+ * <li>{@link #minuteRollover()} moves to the next minute on every frame, going through every
+ * hour in both 12 and 24 hour formats.</li>
+ * <li>{@link #dayRollover()} lays out a new date line and forecast before drawing the frame, as
+ * the face does when it rebuilds its static layer.</li>
+ * </ul>
+ * Dates are formatted for each locale during the setup, so only the layout is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WatchFaceLayoutBenchmark {
+
+    private static final int SURFACE_WIDTH = 320;
+    private static final int FRAMES_PER_MINUTE = 120;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int DAYS = 7;
+
+    @Param({"en_US", "de_DE", "ja_JP", "ar_EG"})
+    public String locale;
+
+    private WatchFaceLayout layout;
+    private FakeSurface surface;
+
+    private final String[] dateTexts = new String[DAYS];
+    private final String[] highestTemperatures = new String[DAYS];
+    private final String[] lowestTemperatures = new String[DAYS];
+
+    private int frame;
+    private int minuteOfDay;
+    private int day;
+
+    @Setup
+    public void setUp() {
+        String[] parts = locale.split("_");
+        Locale benchmarkLocale = new Locale(parts[0], parts[1]);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, MMM dd yyyy", benchmarkLocale);
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), benchmarkLocale);
+        calendar.set(2016, Calendar.JUNE, 27);
+        for (int i = 0; i < DAYS; i++) {
+            dateTexts[i] = dateFormat.format(calendar.getTime());
+            highestTemperatures[i] = String.format(benchmarkLocale, "%d\u00b0", 20 + i);
+            lowestTemperatures[i] = String.format(benchmarkLocale, "%d\u00b0", 10 - i);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+
+        layout = new WatchFaceLayout(new FakeTextMeasurer());
+        layout.setDimensions(110, 30, 8);
+        layout.setIconSize(48, 48);
+        layout.setDateText(dateTexts[0]);
+        layout.setTemperatures(highestTemperatures[0], lowestTemperatures[0]);
+        layout.updateTextMetrics();
+        surface = new FakeSurface();
+    }
+
+    @Benchmark
+    public long frame() {
+        int minute = (frame / FRAMES_PER_MINUTE) % MINUTES_PER_DAY;
+        layout.drawTime(surface, SURFACE_WIDTH, minute / 60, minute % 60, true, frame % 2 == 0);
+        frame++;
+        return surface.getChecksum();
+    }
+
+    @Benchmark
+    public long minuteRollover() {
+        minuteOfDay = (minuteOfDay + 1) % (2 * MINUTES_PER_DAY);
+        int minute = minuteOfDay % MINUTES_PER_DAY;
+        layout.drawTime(surface, SURFACE_WIDTH, minute / 60, minute % 60,
+                minuteOfDay < MINUTES_PER_DAY, true);
+        return surface.getChecksum();
+    }
+
+    @Benchmark
+    public long dayRollover() {
+        day = (day + 1) % DAYS;
+        layout.setDateText(dateTexts[day]);
+        layout.setTemperatures(highestTemperatures[day], lowestTemperatures[day]);
+        layout.drawStaticLayer(surface, SURFACE_WIDTH, true, true);
+        layout.drawTime(surface, SURFACE_WIDTH, 0, 0, true, true);
+        return surface.getChecksum();
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.android.sunshine.app.layout;
+
+/**
+ * Target the {@link WatchFaceLayout} draws into. On the watch it is backed by the Canvas of the
+ * current frame, or by the one of the static layer bitmap.
+ */
+public interface Surface {
+
+    void drawText(int style, char[] text, int start, int count, float x, float y);
+
+    void drawText(int style, String text, float x, float y);
+
+    /**
+     * Draws the weather icon with its top left corner at the given position.
+     */
+    void drawIcon(float x, float y);
+}
@@ -0,0 +1,12 @@
+package com.example.android.sunshine.app.layout;
+
+/**
+ * Measures the advance width of text drawn in one of the {@link WatchFaceLayout} text styles.
+ * On the watch it is backed by the face's Paints.
+ */
+public interface TextMeasurer {
+
+    float measureText(int style, char[] text, int start, int count);
+
+    float measureText(int style, String text);
+}
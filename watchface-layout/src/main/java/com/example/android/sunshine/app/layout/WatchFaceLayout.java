@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.layout;
+
+/**
+ * Layout and text logic of the Sunshine watch face: assembles the time digits, centers the time,
+ * the date line and the weather block, and places the temperatures next to the icon.
+ * <p>
+ * It only depends on {@link TextMeasurer} and {@link Surface}, so it runs on a plain JVM and can
+ * be benchmarked without a device. Everything {@link #drawTime} needs is measured beforehand, so
+ * drawing a frame neither measures nor allocates. It is not thread safe.
+ */
+public class WatchFaceLayout {
+
+    public static final int TEXT_HOUR = 0;
+    public static final int TEXT_MINUTE = 1;
+    public static final int TEXT_COLON = 2;
+    public static final int TEXT_DATE = 3;
+    public static final int TEXT_HIGHEST_TEMPERATURE = 4;
+    public static final int TEXT_LOWEST_TEMPERATURE = 5;
+    public static final int TEXT_STYLE_COUNT = 6;
+
+    public static final String COLON_STRING = ":";
+
+    private static final char[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+
+    private final TextMeasurer measurer;
+
+    private float yOffset;
+    private float lineHeight;
+    private float iconTopMargin;
+
+    /**
+     * Reused buffers for the hour and minute digits, drawn with the char[] variant of drawText
+     * so that a frame does not allocate any String.
+     */
+    private final char[] hourText = new char[2];
+    private final char[] minuteText = new char[2];
+
+    /**
+     * Width of every digit in the hour and minute styles.
+     */
+    private final float[] hourDigitWidths = new float[DIGITS.length];
+    private final float[] minuteDigitWidths = new float[DIGITS.length];
+    private float colonWidth;
+
+    private String dateText = "";
+    private float dateTextWidth;
+
+    private String highestTemperature = "";
+    private String lowestTemperature = "";
+    private float highestTemperatureWidth;
+    private float temperaturesWidth;
+
+    private int iconWidth;
+    private int iconHeight;
+
+    /**
+     * Origin of the colon drawn by the last {@link #drawTime} call.
+     */
+    private float colonX;
+    private float colonY;
+
+    public WatchFaceLayout(TextMeasurer measurer) {
+        this.measurer = measurer;
+    }
+
+    /**
+     * Sets the baseline of the time, the height of a line below it, and the margin above the
+     * weather icon.
+     */
+    public void setDimensions(float yOffset, float lineHeight, float iconTopMargin) {
+        this.yOffset = yOffset;
+        this.lineHeight = lineHeight;
+        this.iconTopMargin = iconTopMargin;
+    }
+
+    /**
+     * Measures every text again, after the size or typeface of a style changed.
+     */
+    public void updateTextMetrics() {
+        for (int digit = 0; digit < DIGITS.length; digit++) {
+            hourDigitWidths[digit] = measurer.measureText(TEXT_HOUR, DIGITS, digit, 1);
+            minuteDigitWidths[digit] = measurer.measureText(TEXT_MINUTE, DIGITS, digit, 1);
+        }
+        colonWidth = measurer.measureText(TEXT_COLON, COLON_STRING);
+        dateTextWidth = measurer.measureText(TEXT_DATE, dateText);
+        updateTemperatureMetrics();
+    }
+
+    public void setDateText(String dateText) {
+        this.dateText = dateText;
+        dateTextWidth = measurer.measureText(TEXT_DATE, dateText);
+    }
+
+    public void setTemperatures(String highestTemperature, String lowestTemperature) {
+        this.highestTemperature = highestTemperature;
+        this.lowestTemperature = lowestTemperature;
+        updateTemperatureMetrics();
+    }
+
+    /**
+     * Sets the size of the weather icon, or 0 by 0 when there is none.
+     */
+    public void setIconSize(int iconWidth, int iconHeight) {
+        this.iconWidth = iconWidth;
+        this.iconHeight = iconHeight;
+    }
+
+    /**
+     * Draws the time centered horizontally on a surface {@code width} wide.
+     *
+     * @param hourOfDay from 0 to 23, shown from 1 to 12 unless {@code is24Hour}.
+     */
+    public void drawTime(Surface surface, int width, int hourOfDay, int minute, boolean is24Hour,
+                         boolean drawColon) {
+        int hour;
+        int hourLength = 0;
+        if (is24Hour) {
+            hour = hourOfDay;
+            hourText[hourLength++] = DIGITS[hour / 10];
+        } else {
+            hour = hourOfDay % 12;
+            if (hour == 0) {
+                hour = 12;
+            }
+            if (hour >= 10) {
+                hourText[hourLength++] = DIGITS[hour / 10];
+            }
+        }
+        hourText[hourLength++] = DIGITS[hour % 10];
+
+        minuteText[0] = DIGITS[minute / 10];
+        minuteText[1] = DIGITS[minute % 10];
+
+        float hourTextWidth = measureDigits(hourText, hourLength, hourDigitWidths);
+        float fullTimeTextWidth = hourTextWidth + colonWidth
+                + measureDigits(minuteText, minuteText.length, minuteDigitWidths);
+        float x = (width - fullTimeTextWidth) / 2;
+
+        surface.drawText(TEXT_HOUR, hourText, 0, hourLength, x, yOffset);
+        x += hourTextWidth;
+
+        colonX = x;
+        colonY = yOffset;
+        if (drawColon) {
+            surface.drawText(TEXT_COLON, COLON_STRING, x, yOffset);
+        }
+        x += colonWidth;
+        surface.drawText(TEXT_MINUTE, minuteText, 0, minuteText.length, x, yOffset);
+    }
+
+    /**
+     * Draws the date line and, unless {@code showWeather} is false, the weather block below it,
+     * centered on a surface {@code width} wide.
+     */
+    public void drawStaticLayer(Surface surface, int width, boolean showWeather,
+                                boolean showIcon) {
+        float y = yOffset + lineHeight;
+        surface.drawText(TEXT_DATE, dateText, (width - dateTextWidth) / 2, y);
+
+        if (!showWeather) {
+            return;
+        }
+
+        float x;
+        if (showIcon && iconWidth > 0) {
+            x = (width - (temperaturesWidth + iconWidth)) / 2;
+            y += iconTopMargin;
+            surface.drawIcon(x, y);
+            x += iconWidth;
+            y += (iconHeight + iconTopMargin) / 2;
+        } else {
+            x = (width - temperaturesWidth) / 2;
+            y += lineHeight;
+        }
+
+        surface.drawText(TEXT_HIGHEST_TEMPERATURE, highestTemperature, x, y);
+        x += highestTemperatureWidth;
+        surface.drawText(TEXT_LOWEST_TEMPERATURE, lowestTemperature, x, y);
+    }
+
+    public float getColonX() {
+        return colonX;
+    }
+
+    public float getColonY() {
+        return colonY;
+    }
+
+    private void updateTemperatureMetrics() {
+        highestTemperatureWidth = measurer.measureText(TEXT_HIGHEST_TEMPERATURE,
+                highestTemperature);
+        temperaturesWidth = highestTemperatureWidth
+                + measurer.measureText(TEXT_LOWEST_TEMPERATURE, lowestTemperature);
+    }
+
+    private static float measureDigits(char[] text, int length, float[] digitWidths) {
+        float width = 0;
+        for (int i = 0; i < length; i++) {
+            width += digitWidths[text[i] - '0'];
+        }
+        return width;
+    }
+}
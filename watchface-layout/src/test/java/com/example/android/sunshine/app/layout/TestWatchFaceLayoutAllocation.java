@@ -0,0 +1,139 @@
+package com.example.android.sunshine.app.layout;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that drawing a steady-state frame allocates nothing, by counting the bytes the test
+ * thread allocates over many frames. Needs a JVM that counts allocations per thread, like
+ * HotSpot; elsewhere the tests pass without checking anything.
+ */
+public class TestWatchFaceLayoutAllocation extends TestCase {
+
+    private static final int SURFACE_WIDTH = 320;
+    private static final int FRAMES_PER_MINUTE = 120;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int FRAME_COUNT = 2 * FRAMES_PER_MINUTE * MINUTES_PER_DAY;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private long threadId;
+    private WatchFaceLayout layout;
+    private CountingSurface surface;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (threadBean.isThreadAllocatedMemorySupported()) {
+                threadBean.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                threadBean = null;
+            }
+        }
+        threadId = Thread.currentThread().getId();
+
+        layout = new WatchFaceLayout(new FixedWidthMeasurer());
+        layout.setDimensions(110, 30, 8);
+        layout.setIconSize(48, 48);
+        layout.setDateText("Mon, Jun 27 2016");
+        layout.setTemperatures("25\u00b0", "16\u00b0");
+        layout.updateTextMetrics();
+        surface = new CountingSurface();
+    }
+
+    public void testTimeFramesDoNotAllocate() {
+        if (threadBean == null)
+            return;
+        // Warms up the code and the counter, which may allocate the first times it is read.
+        drawTimeFrames(FRAMES_PER_MINUTE);
+
+        long overhead = allocatedBytes() - allocatedBytes();
+        long before = allocatedBytes();
+        drawTimeFrames(FRAME_COUNT);
+        long allocated = allocatedBytes() - before + overhead;
+
+        // Any allocation in a frame would add at least one object header per frame.
+        assertTrue("Error: " + allocated + " bytes allocated over " + FRAME_COUNT + " frames",
+                allocated < FRAME_COUNT);
+        assertEquals(FRAME_COUNT * 3 - FRAME_COUNT / 2, surface.drawCount);
+    }
+
+    public void testStaticLayerDoesNotAllocate() {
+        if (threadBean == null)
+            return;
+        drawStaticLayers(FRAMES_PER_MINUTE);
+
+        long overhead = allocatedBytes() - allocatedBytes();
+        long before = allocatedBytes();
+        drawStaticLayers(FRAME_COUNT);
+        long allocated = allocatedBytes() - before + overhead;
+
+        assertTrue("Error: " + allocated + " bytes allocated over " + FRAME_COUNT + " layers",
+                allocated < FRAME_COUNT);
+    }
+
+    /**
+     * Draws the frames of the interactive update rate from midnight on, two a second with the
+     * colon blinking, in 12 hour format the first day and in 24 hour format the next.
+     */
+    private void drawTimeFrames(int frameCount) {
+        surface.drawCount = 0;
+        for (int frame = 0; frame < frameCount; frame++) {
+            int minuteOfTwoDays = frame / FRAMES_PER_MINUTE;
+            int minute = minuteOfTwoDays % MINUTES_PER_DAY;
+            layout.drawTime(surface, SURFACE_WIDTH, minute / 60, minute % 60,
+                    minuteOfTwoDays >= MINUTES_PER_DAY, frame % 2 == 0);
+        }
+    }
+
+    private void drawStaticLayers(int layerCount) {
+        for (int i = 0; i < layerCount; i++) {
+            layout.drawStaticLayer(surface, SURFACE_WIDTH, true, i % 2 == 0);
+        }
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * Gives every character the same width, so the layout measures without allocating either.
+     */
+    private static class FixedWidthMeasurer implements TextMeasurer {
+
+        @Override
+        public float measureText(int style, char[] text, int start, int count) {
+            return 20f * count;
+        }
+
+        @Override
+        public float measureText(int style, String text) {
+            return 20f * text.length();
+        }
+    }
+
+    /**
+     * Only counts what it is asked to draw.
+     */
+    private static class CountingSurface implements Surface {
+
+        int drawCount;
+
+        @Override
+        public void drawText(int style, char[] text, int start, int count, float x, float y) {
+            drawCount++;
+        }
+
+        @Override
+        public void drawText(int style, String text, float x, float y) {
+            drawCount++;
+        }
+
+        @Override
+        public void drawIcon(float x, float y) {
+            drawCount++;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+
+import com.example.android.sunshine.app.layout.WatchFaceLayout;
+
+import java.text.DateFormat;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ambient frames of the next few minutes, rendered ahead of time on the update worker so that an
+ * ambient tick only has to blit one bitmap. Each tick asks for the frames from its own minute on,
+ * which keeps the ring {@link #FRAME_COUNT} minutes ahead of the clock.
+ * <p>
+ * Ambient mode only draws shades of grey on black, so a frame is an {@code ALPHA_8} mask whose
+ * alpha holds the brightness of each pixel, blitted with a white paint. In low-bit ambient the
+ * text is not antialiased, so the mask is effectively 1 bit deep. Frames are keyed by minute since
+ * the epoch; {@link #invalidate()} drops all of them whenever something they show changes.
+ */
+class AmbientFrameCache {
+
+    static final int FRAME_COUNT = 4;
+
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final AtomicReferenceArray<Frame> frames = new AtomicReferenceArray<>(FRAME_COUNT);
+    private final AtomicInteger generation = new AtomicInteger();
+
+    // The latest request queued by prerender(), read by the update worker.
+    private volatile Request pendingRequest;
+    private volatile long pendingFirstMinute;
+    private final Runnable renderTask = new Runnable() {
+        @Override
+        public void run() {
+            render(pendingRequest, pendingFirstMinute);
+        }
+    };
+
+    /**
+     * Returns the frame of {@code minute}, or null if it is not rendered. Called on the UI thread.
+     */
+    Bitmap getFrame(long minute) {
+        Frame frame = frames.get(slotOf(minute));
+        if (frame == null || frame.minute != minute || frame.generation != generation.get()) {
+            return null;
+        }
+        return frame.bitmap;
+    }
+
+    /**
+     * Drops every frame, and makes the requests still queued obsolete.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Queues the rendering of the frames from {@code firstMinute} on that are missing. Called on
+     * the UI thread; the one task is reused so that queueing allocates nothing.
+     */
+    void prerender(Executor executor, Request request, long firstMinute) {
+        pendingRequest = request;
+        pendingFirstMinute = firstMinute;
+        executor.execute(renderTask);
+    }
+
+    /**
+     * Renders the frames from {@code firstMinute} on that are missing. Called on the update
+     * worker.
+     */
+    void render(Request request, long firstMinute) {
+        Canvas canvas = new Canvas();
+        Calendar calendar = Calendar.getInstance(request.timeZone);
+        request.dateFormat.setCalendar(calendar);
+        WatchFaceLayout layout = null;
+        CanvasSurface surface = new CanvasSurface(request.paints, null);
+        surface.setCanvas(canvas);
+
+        for (long minute = firstMinute; minute < firstMinute + FRAME_COUNT; minute++) {
+            if (request.generation != generation.get() || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            int slot = slotOf(minute);
+            Frame previous = frames.get(slot);
+            if (previous != null && previous.minute == minute
+                    && previous.generation == request.generation) {
+                continue;
+            }
+
+            if (layout == null) {
+                layout = new WatchFaceLayout(new PaintTextMeasurer(request.paints));
+                layout.setDimensions(request.yOffset, request.lineHeight, 0);
+                layout.setTemperatures(request.highestTemperature, request.lowestTemperature);
+                layout.updateTextMetrics();
+            }
+
+            // The bitmap of a frame that is over can be reused. Frames are requested on the UI
+            // thread once their first minute has come, so a frame before it is never drawn again.
+            Bitmap bitmap;
+            if (previous != null && previous.minute < firstMinute
+                    && previous.bitmap.getWidth() == request.width
+                    && previous.bitmap.getHeight() == request.height) {
+                bitmap = previous.bitmap;
+                frames.compareAndSet(slot, previous, null);
+            } else {
+                bitmap = Bitmap.createBitmap(request.width, request.height, Bitmap.Config.ALPHA_8);
+            }
+
+            calendar.setTimeInMillis(minute * MINUTE_MS);
+            layout.setDateText(request.dateFormat.format(calendar.getTime()));
+
+            canvas.setBitmap(bitmap);
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            layout.drawStaticLayer(surface, request.width, request.showWeather, false);
+            layout.drawTime(surface, request.width, calendar.get(Calendar.HOUR_OF_DAY),
+                    calendar.get(Calendar.MINUTE), request.is24Hour, true);
+            canvas.setBitmap(null);
+
+            frames.set(slot, new Frame(minute, request.generation, bitmap));
+        }
+    }
+
+    static long minuteOf(long timeMs) {
+        return timeMs / MINUTE_MS;
+    }
+
+    /**
+     * Turns a paint color into the alpha of the mask, so that a white blit gives back its
+     * brightness.
+     */
+    static int toMaskColor(int color) {
+        int brightness = (Color.red(color) * 299 + Color.green(color) * 587
+                + Color.blue(color) * 114) / 1000;
+        return Color.argb(brightness * Color.alpha(color) / 255, 0, 0, 0);
+    }
+
+    private static int slotOf(long minute) {
+        return (int) (minute % FRAME_COUNT);
+    }
+
+    private static final class Frame {
+
+        final long minute;
+        final int generation;
+        final Bitmap bitmap;
+
+        Frame(long minute, int generation, Bitmap bitmap) {
+            this.minute = minute;
+            this.generation = generation;
+            this.bitmap = bitmap;
+        }
+    }
+
+    /**
+     * Everything a frame shows, copied on the UI thread so the worker never touches the face's
+     * own paints and formats. The face builds one whenever the frames are invalidated and reuses
+     * it for every minute until then; only the worker uses its date format.
+     */
+    static final class Request {
+
+        final int generation;
+        final int width;
+        final int height;
+        final Paint[] paints;
+        final float yOffset;
+        final float lineHeight;
+        final TimeZone timeZone;
+        final DateFormat dateFormat;
+        final boolean is24Hour;
+        final String highestTemperature;
+        final String lowestTemperature;
+        final boolean showWeather;
+
+        Request(int generation, int width, int height, Paint[] paints, float yOffset,
+                float lineHeight, TimeZone timeZone, DateFormat dateFormat, boolean is24Hour,
+                String highestTemperature, String lowestTemperature, boolean showWeather) {
+            this.generation = generation;
+            this.width = width;
+            this.height = height;
+            this.paints = paints;
+            this.yOffset = yOffset;
+            this.lineHeight = lineHeight;
+            this.timeZone = timeZone;
+            this.dateFormat = dateFormat;
+            this.is24Hour = is24Hour;
+            this.highestTemperature = highestTemperature;
+            this.lowestTemperature = lowestTemperature;
+            this.showWeather = showWeather;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import com.example.android.sunshine.app.layout.Surface;
+
+/**
+ * Draws the {@link com.example.android.sunshine.app.layout.WatchFaceLayout} into a Canvas with
+ * the face's Paints, indexed by text style. The Canvas is swapped for every frame instead of
+ * creating a new surface.
+ */
+class CanvasSurface implements Surface {
+
+    private final Paint[] paints;
+    private final Paint iconPaint;
+    private Canvas canvas;
+    private Bitmap icon;
+
+    CanvasSurface(Paint[] paints, Paint iconPaint) {
+        this.paints = paints;
+        this.iconPaint = iconPaint;
+    }
+
+    void setCanvas(Canvas canvas) {
+        this.canvas = canvas;
+    }
+
+    void setIcon(Bitmap icon) {
+        this.icon = icon;
+    }
+
+    @Override
+    public void drawText(int style, char[] text, int start, int count, float x, float y) {
+        canvas.drawText(text, start, count, x, y, paints[style]);
+    }
+
+    @Override
+    public void drawText(int style, String text, float x, float y) {
+        canvas.drawText(text, x, y, paints[style]);
+    }
+
+    @Override
+    public void drawIcon(float x, float y) {
+        if (icon != null) {
+            canvas.drawBitmap(icon, x, y, iconPaint);
+        }
+    }
+}
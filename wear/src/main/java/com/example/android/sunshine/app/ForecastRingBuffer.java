@@ -0,0 +1,186 @@
+package com.example.android.sunshine.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-size ring of daily forecasts received from the handheld, indexed by day and persisted in
+ * a small memory-mapped file.
+ * <p>
+ * It lets the face move on to the next day's forecast at midnight without waiting for a sync,
+ * and show the last known forecast right after a reboot. Each day lives in the slot
+ * {@code day % CAPACITY}, so the whole window sent by the handheld fits without ever
+ * allocating. It is not thread safe and is only used from the UI thread.
+ */
+class ForecastRingBuffer {
+
+    private static final String TAG = ForecastRingBuffer.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast.bin";
+    static final int CAPACITY = WeatherPayload.MAX_DAYS;
+    static final int NO_SEQUENCE = -1;
+
+    // Changed whenever the layout changes, so that an older file is cleared.
+    private static final int MAGIC = 0x53554e33;
+    private static final int NO_DAY = Integer.MIN_VALUE;
+
+    // Header: magic, sequence number of the last payload, metric flag, location.
+    private static final int SEQUENCE_OFFSET = 4;
+    private static final int METRIC_OFFSET = 8;
+    private static final int LATITUDE_OFFSET = 9;
+    private static final int LONGITUDE_OFFSET = 13;
+    private static final int HEADER_SIZE = 17;
+
+    // Slot: day since the epoch, weather id, max and min temperature in tenths of a degree, and
+    // the details in the units of WeatherPayload.
+    private static final int SLOT_WEATHER_ID_OFFSET = 4;
+    private static final int SLOT_MAX_OFFSET = 6;
+    private static final int SLOT_MIN_OFFSET = 8;
+    private static final int SLOT_HUMIDITY_OFFSET = 10;
+    private static final int SLOT_PRESSURE_OFFSET = 11;
+    private static final int SLOT_WIND_SPEED_OFFSET = 13;
+    private static final int SLOT_WIND_DIRECTION_OFFSET = 15;
+    private static final int SLOT_SIZE = 17;
+
+    private static final int FILE_SIZE = HEADER_SIZE + CAPACITY * SLOT_SIZE;
+
+    private final ByteBuffer buffer;
+
+    private ForecastRingBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            clear();
+        }
+    }
+
+    /**
+     * Maps the forecast file, creating it when needed. If the file cannot be mapped the forecast
+     * is only kept in memory.
+     */
+    static ForecastRingBuffer open(File file) {
+        ByteBuffer buffer;
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                MappedByteBuffer mappedBuffer = randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+                mappedBuffer.load();
+                buffer = mappedBuffer;
+            } finally {
+                // The mapping stays valid once the file is closed.
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not map " + file, e);
+            buffer = ByteBuffer.allocate(FILE_SIZE);
+        }
+        return new ForecastRingBuffer(buffer);
+    }
+
+    /**
+     * Stores every day of the payload, replacing whatever the slots held before.
+     */
+    void update(WeatherPayload payload) {
+        buffer.putInt(SEQUENCE_OFFSET, payload.sequence);
+        buffer.put(METRIC_OFFSET, (byte) (payload.metric ? 1 : 0));
+        buffer.putFloat(LATITUDE_OFFSET, payload.latitude);
+        buffer.putFloat(LONGITUDE_OFFSET, payload.longitude);
+        for (int i = 0; i < payload.dayCount; i++) {
+            int day = payload.firstDay + i;
+            int offset = slotOffset(day);
+            buffer.putInt(offset, day);
+            buffer.putShort(offset + SLOT_WEATHER_ID_OFFSET, (short) payload.weatherIds[i]);
+            buffer.putShort(offset + SLOT_MAX_OFFSET, payload.maxTemperatures[i]);
+            buffer.putShort(offset + SLOT_MIN_OFFSET, payload.minTemperatures[i]);
+            buffer.put(offset + SLOT_HUMIDITY_OFFSET, payload.humidities[i]);
+            buffer.putShort(offset + SLOT_PRESSURE_OFFSET, payload.pressures[i]);
+            buffer.putShort(offset + SLOT_WIND_SPEED_OFFSET, payload.windSpeeds[i]);
+            buffer.putShort(offset + SLOT_WIND_DIRECTION_OFFSET, payload.windDirections[i]);
+        }
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    /**
+     * Returns the slot holding the forecast of {@code day}, in days since the epoch, or -1 if that
+     * day is not known.
+     */
+    int indexOf(int day) {
+        int offset = slotOffset(day);
+        return buffer.getInt(offset) == day ? (offset - HEADER_SIZE) / SLOT_SIZE : -1;
+    }
+
+    int getWeatherId(int index) {
+        return buffer.getShort(HEADER_SIZE + index * SLOT_SIZE + SLOT_WEATHER_ID_OFFSET);
+    }
+
+    short getMaxTemperature(int index) {
+        return buffer.getShort(HEADER_SIZE + index * SLOT_SIZE + SLOT_MAX_OFFSET);
+    }
+
+    short getMinTemperature(int index) {
+        return buffer.getShort(HEADER_SIZE + index * SLOT_SIZE + SLOT_MIN_OFFSET);
+    }
+
+    /**
+     * Returns the humidity in percent, or {@link WeatherPayload#NO_HUMIDITY} when the handheld
+     * did not send the details of that day. The pressure and wind are only known when it did.
+     */
+    int getHumidity(int index) {
+        return buffer.get(HEADER_SIZE + index * SLOT_SIZE + SLOT_HUMIDITY_OFFSET);
+    }
+
+    short getPressure(int index) {
+        return buffer.getShort(HEADER_SIZE + index * SLOT_SIZE + SLOT_PRESSURE_OFFSET);
+    }
+
+    short getWindSpeed(int index) {
+        return buffer.getShort(HEADER_SIZE + index * SLOT_SIZE + SLOT_WIND_SPEED_OFFSET);
+    }
+
+    int getWindDirection(int index) {
+        return buffer.getShort(HEADER_SIZE + index * SLOT_SIZE + SLOT_WIND_DIRECTION_OFFSET);
+    }
+
+    /**
+     * Returns the latitude of the forecast location, or NaN if it is not known.
+     */
+    float getLatitude() {
+        return buffer.getFloat(LATITUDE_OFFSET);
+    }
+
+    float getLongitude() {
+        return buffer.getFloat(LONGITUDE_OFFSET);
+    }
+
+    boolean isMetric() {
+        return buffer.get(METRIC_OFFSET) != 0;
+    }
+
+    int getSequence() {
+        return buffer.getInt(SEQUENCE_OFFSET);
+    }
+
+    private void clear() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(SEQUENCE_OFFSET, NO_SEQUENCE);
+        buffer.put(METRIC_OFFSET, (byte) 1);
+        buffer.putFloat(LATITUDE_OFFSET, Float.NaN);
+        buffer.putFloat(LONGITUDE_OFFSET, Float.NaN);
+        for (int index = 0; index < CAPACITY; index++) {
+            buffer.putInt(HEADER_SIZE + index * SLOT_SIZE, NO_DAY);
+        }
+    }
+
+    private static int slotOffset(int day) {
+        int index = ((day % CAPACITY) + CAPACITY) % CAPACITY;
+        return HEADER_SIZE + index * SLOT_SIZE;
+    }
+}
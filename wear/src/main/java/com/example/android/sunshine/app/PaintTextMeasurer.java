@@ -0,0 +1,28 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Paint;
+
+import com.example.android.sunshine.app.layout.TextMeasurer;
+
+/**
+ * Measures the {@link com.example.android.sunshine.app.layout.WatchFaceLayout} text styles with
+ * the face's Paints, indexed by style.
+ */
+class PaintTextMeasurer implements TextMeasurer {
+
+    private final Paint[] paints;
+
+    PaintTextMeasurer(Paint[] paints) {
+        this.paints = paints;
+    }
+
+    @Override
+    public float measureText(int style, char[] text, int start, int count) {
+        return paints[style].measureText(text, start, count);
+    }
+
+    @Override
+    public float measureText(int style, String text) {
+        return paints[style].measureText(text);
+    }
+}
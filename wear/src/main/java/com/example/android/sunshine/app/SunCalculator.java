@@ -0,0 +1,52 @@
+package com.example.android.sunshine.app;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes sunrise and sunset times with the sunrise equation, which is accurate to a minute or
+ * two away from the poles. The handheld's forecast does not include them, but it does send the
+ * location, so the watch works them out itself.
+ */
+final class SunCalculator {
+
+    static final long NO_EVENT = Long.MIN_VALUE;
+
+    private static final double JULIAN_DAY_OF_EPOCH = 2440587.5;
+    private static final double JULIAN_DAY_OF_J2000 = 2451545.0;
+    private static final double DAY_MS = TimeUnit.DAYS.toMillis(1);
+    private static final double EARTH_TILT = Math.toRadians(23.44);
+    private static final double SUN_ALTITUDE_AT_RISE = Math.toRadians(-0.83);
+
+    private SunCalculator() {
+    }
+
+    /**
+     * Returns the time of the sunrise, or sunset, on the given day since the epoch, in
+     * milliseconds since the epoch, or {@link #NO_EVENT} if the sun does not rise or set that day.
+     *
+     * @param longitude in degrees, positive east of Greenwich.
+     */
+    static long getSunEventMs(int day, double latitude, double longitude, boolean sunrise) {
+        double n = day + JULIAN_DAY_OF_EPOCH + 0.5 - JULIAN_DAY_OF_J2000 + 0.0008;
+        double meanSolarNoon = n - longitude / 360;
+        double meanAnomaly = Math.toRadians((357.5291 + 0.98560028 * meanSolarNoon) % 360);
+        double center = 1.9148 * Math.sin(meanAnomaly) + 0.0200 * Math.sin(2 * meanAnomaly)
+                + 0.0003 * Math.sin(3 * meanAnomaly);
+        double eclipticLongitude = Math.toRadians(
+                (Math.toDegrees(meanAnomaly) + center + 180 + 102.9372) % 360);
+        double solarTransit = JULIAN_DAY_OF_J2000 + meanSolarNoon
+                + 0.0053 * Math.sin(meanAnomaly) - 0.0069 * Math.sin(2 * eclipticLongitude);
+
+        double declination = Math.asin(Math.sin(eclipticLongitude) * Math.sin(EARTH_TILT));
+        double latitudeRadians = Math.toRadians(latitude);
+        double cosHourAngle = (Math.sin(SUN_ALTITUDE_AT_RISE)
+                - Math.sin(latitudeRadians) * Math.sin(declination))
+                / (Math.cos(latitudeRadians) * Math.cos(declination));
+        if (cosHourAngle < -1 || cosHourAngle > 1) {
+            return NO_EVENT;
+        }
+        double hourAngle = Math.toDegrees(Math.acos(cosHourAngle)) / 360;
+        double event = sunrise ? solarTransit - hourAngle : solarTransit + hourAngle;
+        return Math.round((event - JULIAN_DAY_OF_EPOCH) * DAY_MS);
+    }
+}
@@ -6,14 +6,16 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.wearable.watchface.CanvasWatchFaceService;
@@ -25,24 +27,35 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.app.layout.WatchFaceLayout;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by clerks on 7/21/16.
@@ -50,16 +63,31 @@ import java.util.concurrent.TimeUnit;
 
 public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
-    private static final long NORMAL_UPDATE_RATE_MS = 500;
-
     private static final Typeface BOLD_TYPEFACE =
             Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
 
     private static final Typeface NORMAL_TYPEFACE =
             Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
 
-    private static final long MUTE_UPDATE_RATE_MS = TimeUnit.MINUTES.toMillis(1);
     private static final String SUNSHINE_WEATHER_PATH = "/sunshine-weather";
+    private static final String SUNSHINE_ICON_CACHE_PATH = "/sunshine-icon-cache";
+
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Directions the ambient frame is shifted to, one per minute, to protect the screen against
+     * burn-in.
+     */
+    private static final int[] BURN_IN_OFFSETS_X = {0, 1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] BURN_IN_OFFSETS_Y = {0, 0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int NO_FORECAST_DAY = Integer.MIN_VALUE;
+
+    /**
+     * Buffers a window surface may cycle through. A frame drawn for the colon alone keeps what
+     * its buffer held from the last time it was drawn, so a change is drawn whole this many
+     * times first.
+     */
+    private static final int SURFACE_BUFFER_COUNT = 3;
 
     @Override
     public Engine onCreateEngine() {
@@ -70,11 +98,10 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             GoogleApiClient.ConnectionCallbacks,
             GoogleApiClient.OnConnectionFailedListener {
 
-        static final String COLON_STRING = ":";
-
-        private static final String HIGHEST_TEMPERATURE_KEY = "highestTemperature";
-        private static final String LOWEST_TEMPERATURE_KEY = "lowestTemperature";
+        private static final String WEATHER_PAYLOAD_KEY = "weatherPayload";
         private static final String WEATHER_ICON_KEY = "weatherIcon";
+        private static final String WEATHER_ICON_NAME_KEY = "weatherIconName";
+        private static final String ICON_CACHE_KEYS_KEY = "iconKeys";
 
         /**
          * Alpha value for drawing time when in mute mode.
@@ -89,7 +116,10 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         private final String TAG = Engine.class.getSimpleName();
 
 
-        long mInteractiveUpdateRateMs = NORMAL_UPDATE_RATE_MS;
+        /**
+         * Picks the interactive tick rate from what is visible and counts the wakeups it saves.
+         */
+        final UpdateRatePolicy updateRatePolicy = new UpdateRatePolicy();
 
         static final int MSG_UPDATE_TIME = 0;
 
@@ -105,14 +135,64 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
         private boolean isRound;
 
-        private String highestTemperature = String.format(getResources().getString(R.string.format_temperature), "25");
+        /**
+         * Empty until the last known snapshot or the first payload from the handheld is loaded.
+         */
+        private String highestTemperature = "";
 
-        private String lowestTemperature = String.format(getResources().getString(R.string.format_temperature), "16");
+        private String lowestTemperature = "";
 
         Date date;
         SimpleDateFormat dayOfWeekFormat;
         java.text.DateFormat dateFormat;
 
+        /**
+         * Lays out the time, date and weather block. It measures with the text paints, indexed
+         * by WatchFaceLayout text style, and draws through faceSurface.
+         */
+        private Paint[] textPaints;
+        private WatchFaceLayout faceLayout;
+        private CanvasSurface faceSurface;
+
+        private boolean is24Hour;
+
+        /**
+         * Formatted date line, cached until the day or the locale changes.
+         */
+        private String dateText;
+        private int dateTextDay = -1;
+
+        /**
+         * Cached bitmap holding the background, date and weather block. How often it is reused or
+         * redrawn is counted by the {@link WatchFaceMetrics}.
+         */
+        private Bitmap staticLayerBitmap;
+        private Canvas staticLayerCanvas;
+        private volatile boolean staticLayerValid;
+
+        final WatchFaceInvalidationScheduler invalidationScheduler =
+                new WatchFaceInvalidationScheduler();
+
+        /**
+         * Bounds of the colon glyph relative to its origin, and the surface region it was last
+         * drawn into, used to redraw just the colon when it blinks.
+         */
+        private final Rect colonTextBounds = new Rect();
+        private final Rect colonDirtyRect = new Rect();
+
+        /**
+         * Whether the next frame was asked for the colon alone, and whether a whole frame was
+         * asked for since, which the colon frame must not clip.
+         */
+        private boolean colonFrameRequested;
+        private boolean wholeFrameRequested;
+
+        /**
+         * Whole frames still to draw before a frame may be drawn for the colon alone, see
+         * {@link #SURFACE_BUFFER_COUNT}.
+         */
+        private int wholeFramesLeft = SURFACE_BUFFER_COUNT;
+
         boolean shouldDrawColons;
 
         int mInteractiveBackgroundColor = R.color.interactive_background_color;
@@ -126,10 +206,23 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             public void handleMessage(Message message) {
                 switch (message.what) {
                     case MSG_UPDATE_TIME:
-                        invalidate();
+                        metrics.recordHandlerWakeup();
+                        updateRatePolicy.onWakeup();
+                        long timeMs = System.currentTimeMillis();
+                        // A slot showing a time, like the sunrise, expires on its own.
+                        if (areSlotsVisible() && watchFaceSlots.needsRefresh(timeMs)) {
+                            invalidateStaticLayer(WatchFaceInvalidationScheduler.CHANGE_DATA);
+                        }
+                        int changes = invalidationScheduler.onTick(timeMs);
+                        if (WatchFaceInvalidationScheduler.needsFullRedraw(changes)) {
+                            invalidate();
+                        } else {
+                            invalidateColon();
+                        }
+                        // Keeps the next ambient minutes ready while interactive.
+                        requestAmbientFrames(AmbientFrameCache.minuteOf(timeMs));
                         if (shouldTimerBeRunning()) {
-                            long timeMs = System.currentTimeMillis();
-                            long delayMs = mInteractiveUpdateRateMs - (timeMs % mInteractiveUpdateRateMs);
+                            long delayMs = updateRatePolicy.getDelayMs(timeMs);
                             updateTimeHandler
                                     .sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
                         }
@@ -140,11 +233,81 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
         private GoogleApiClient mGoogleApiClient;
 
+        /**
+         * Single worker that fetches and decodes weather payloads off the UI thread. The
+         * generation counter lets a newer payload supersede the ones still in flight.
+         */
+        private final ExecutorService weatherUpdateExecutor = Executors.newSingleThreadExecutor();
+        private final AtomicInteger weatherUpdateGeneration = new AtomicInteger();
+        private Future<?> pendingWeatherUpdate;
+        private final WeatherIconDecoder weatherIconDecoder = new WeatherIconDecoder();
+        private WeatherIconCache weatherIconCache;
+        private String weatherIconKey;
+        private final WeatherPayload weatherPayload = new WeatherPayload();
+        private ForecastRingBuffer forecastRingBuffer;
+        private WeatherSnapshotStore weatherSnapshotStore;
+
+        /**
+         * Complication-style cells under the weather block, cached until their inputs change.
+         */
+        private WatchFaceSlots watchFaceSlots;
+        private float slotHeight;
+        private float weatherIconSize;
+
+        /**
+         * Day whose forecast is shown, in days since the epoch.
+         */
+        private int forecastDay = NO_FORECAST_DAY;
+
+        private final WatchFaceMetrics metrics = new WatchFaceMetrics();
+
+        /**
+         * Ambient frames rendered ahead on the update worker, what they show, the minute they
+         * were last requested for, and the paint they are blitted with. The request is built
+         * again only after the frames were invalidated.
+         */
+        private final AmbientFrameCache ambientFrameCache = new AmbientFrameCache();
+        private AmbientFrameCache.Request ambientFrameRequest;
+        private long ambientFramesRequestedMinute = -1;
+        private Paint ambientFramePaint;
+        private float burnInShift;
+        private int surfaceWidth;
+        private int surfaceHeight;
+
+        /**
+         * When the weather item being loaded was received, and when the loaded weather still
+         * waiting to be drawn was received, in {@link System#nanoTime()} units. 0 when unknown.
+         */
+        private long weatherReceivedAtNs;
+        private long weatherDrawPendingSinceNs;
+
+        /**
+         * Lets the metrics be driven from adb on debug builds, see {@link WatchFaceMetrics}.
+         */
+        final BroadcastReceiver metricsReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                String command = intent.getStringExtra(WatchFaceMetrics.EXTRA_COMMAND);
+                if (WatchFaceMetrics.COMMAND_ENABLE.equals(command)) {
+                    metrics.setEnabled(true);
+                } else if (WatchFaceMetrics.COMMAND_DISABLE.equals(command)) {
+                    metrics.setEnabled(false);
+                } else if (WatchFaceMetrics.COMMAND_RESET.equals(command)) {
+                    metrics.reset();
+                } else if (WatchFaceMetrics.COMMAND_DUMP.equals(command)) {
+                    metrics.dump(getFilesDir(),
+                            updateRatePolicy.report(SystemClock.elapsedRealtime()));
+                }
+            }
+        };
+
         final BroadcastReceiver timeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 calendar.setTimeZone(TimeZone.getDefault());
+                invalidationScheduler.setTimeZone(calendar.getTimeZone());
                 initFormats();
+                invalidateStaticLayer(WatchFaceInvalidationScheduler.CHANGE_DAY);
                 invalidate();
             }
         };
@@ -157,7 +320,6 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         private Paint backgroundPaint;
         private Paint datePaint;
         private Paint colonPaint;
-        float colonWidth;
         boolean mute;
         private Paint highestTemperaturePaint;
         private Paint lowestTemperaturePaint;
@@ -197,10 +359,44 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             highestTemperaturePaint = createTextPaint(mInteractiveHourDigitsColor);
             lowestTemperaturePaint = createTextPaint(resources.getColor(R.color.digital_date));
 
+            textPaints = new Paint[WatchFaceLayout.TEXT_STYLE_COUNT];
+            textPaints[WatchFaceLayout.TEXT_HOUR] = hourPaint;
+            textPaints[WatchFaceLayout.TEXT_MINUTE] = minutePaint;
+            textPaints[WatchFaceLayout.TEXT_COLON] = colonPaint;
+            textPaints[WatchFaceLayout.TEXT_DATE] = datePaint;
+            textPaints[WatchFaceLayout.TEXT_HIGHEST_TEMPERATURE] = highestTemperaturePaint;
+            textPaints[WatchFaceLayout.TEXT_LOWEST_TEMPERATURE] = lowestTemperaturePaint;
+            faceLayout = new WatchFaceLayout(new PaintTextMeasurer(textPaints));
+            faceLayout.setDimensions(yOffset, mLineHeight, top_margin_image);
+            faceSurface = new CanvasSurface(textPaints, weatherPaint);
+
+            ambientFramePaint = new Paint();
+            ambientFramePaint.setColor(Color.WHITE);
+            burnInShift = resources.getDimension(R.dimen.ambient_burn_in_shift);
+
             calendar = Calendar.getInstance();
             date = new Date();
             initFormats();
 
+            weatherIconCache = new WeatherIconCache(getCacheDir(), weatherIconDecoder);
+            forecastRingBuffer = ForecastRingBuffer.open(
+                    new File(getFilesDir(), ForecastRingBuffer.FILE_NAME));
+            weatherSnapshotStore = new WeatherSnapshotStore(getFilesDir());
+            restoreWeatherSnapshot();
+
+            slotHeight = resources.getDimension(R.dimen.slot_height);
+            weatherIconSize = resources.getDimension(R.dimen.weather_icon_size);
+            watchFaceSlots = new WatchFaceSlots(SunshineWatchFaceService.this,
+                    resources.getStringArray(R.array.watch_face_slots), forecastRingBuffer,
+                    createTextPaint(resources.getColor(R.color.digital_date)),
+                    createTextPaint(Color.WHITE), metrics);
+            watchFaceSlots.setDay(getCurrentDay());
+
+            if (BuildConfig.DEBUG) {
+                SunshineWatchFaceService.this.registerReceiver(metricsReceiver,
+                        new IntentFilter(WatchFaceMetrics.ACTION_METRICS));
+            }
+
             mGoogleApiClient =
                     new GoogleApiClient.Builder(SunshineWatchFaceService.this)
                             .addApi(Wearable.API)
@@ -214,6 +410,16 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         @Override
         public void onDestroy() {
             updateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            weatherUpdateGeneration.incrementAndGet();
+            weatherUpdateExecutor.shutdownNow();
+            if (staticLayerBitmap != null) {
+                staticLayerBitmap.recycle();
+                staticLayerBitmap = null;
+            }
+            watchFaceSlots.release();
+            if (BuildConfig.DEBUG) {
+                SunshineWatchFaceService.this.unregisterReceiver(metricsReceiver);
+            }
             super.onDestroy();
         }
 
@@ -224,14 +430,20 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             burnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION,
                     false);
             hourPaint.setTypeface(burnInProtection ? NORMAL_TYPEFACE : BOLD_TYPEFACE);
+            updateTextMetrics();
+            watchFaceSlots.invalidateAll();
 
             lowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            invalidateAmbientFrames();
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            metrics.recordTimeTick();
             invalidate();
+            // Keeps the ring of ambient frames ahead of the clock: one new minute per tick.
+            requestAmbientFrames(AmbientFrameCache.minuteOf(System.currentTimeMillis()));
         }
 
         @Override
@@ -254,6 +466,11 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 colonPaint.setAntiAlias(antiAlias);
             }
 
+            invalidateStaticLayer(WatchFaceInvalidationScheduler.CHANGE_MODE);
+            if (inAmbientMode) {
+                // Renders what the interactive ticks did not, if anything changed since.
+                requestAmbientFrames(AmbientFrameCache.minuteOf(System.currentTimeMillis()));
+            }
             invalidate();
             updateTimer();
         }
@@ -262,8 +479,10 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         public void onInterruptionFilterChanged(int interruptionFilter) {
             super.onInterruptionFilterChanged(interruptionFilter);
             boolean inMuteMode = interruptionFilter == WatchFaceService.INTERRUPTION_FILTER_NONE;
-            // We only need to update once a minute in mute mode.
-            setInteractiveUpdateRateMs(inMuteMode ? MUTE_UPDATE_RATE_MS : NORMAL_UPDATE_RATE_MS);
+            // The colon does not blink in mute mode, so the face only ticks once a minute.
+            if (updateRatePolicy.setMute(inMuteMode)) {
+                updateTimer();
+            }
 
             if (mute != inMuteMode) {
                 mute = inMuteMode;
@@ -272,84 +491,266 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 hourPaint.setAlpha(alpha);
                 minutePaint.setAlpha(alpha);
                 colonPaint.setAlpha(alpha);
+                watchFaceSlots.labelPaint.setAlpha(alpha);
+                watchFaceSlots.valuePaint.setAlpha(alpha);
+                watchFaceSlots.invalidateAll();
+                invalidateStaticLayer(WatchFaceInvalidationScheduler.CHANGE_MODE);
+                invalidateAmbientFrames();
                 invalidate();
             }
         }
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            long drawStartNs = System.nanoTime();
             long now = System.currentTimeMillis();
             calendar.setTimeInMillis(now);
-            date.setTime(now);
-            boolean is24Hour = DateFormat.is24HourFormat(SunshineWatchFaceService.this);
 
-            // Show colons for the first half of each second so the colons blink on when the time
-            // updates.
-            shouldDrawColons = (System.currentTimeMillis() % 1000) < 500;
+            shouldDrawColons = updateRatePolicy.isColonShown(now);
 
-            // Draw the background.
-            canvas.drawRect(0, 0, bounds.width(), bounds.height(), backgroundPaint);
+            // The background, date and weather block only change with their inputs, so they are
+            // composed once into the static layer and blitted under the time on every frame.
+            if (updateDateTextIfNeeded()) {
+                invalidateStaticLayer(WatchFaceInvalidationScheduler.CHANGE_DAY);
+                watchFaceSlots.setDay(getCurrentDay());
+                // Move on to the stored forecast of the new day, without waiting for a sync.
+                weatherReceivedAtNs = 0;
+                showForecastForDay(getCurrentDay(), null, null);
+            }
 
-            // Draw the hours.
-            float x = 0.0f;
-            String hourString;
-            if (is24Hour) {
-                hourString = formatTwoDigitNumber(calendar.get(Calendar.HOUR_OF_DAY));
+            // An ambient tick is a single blit when the frame of this minute was rendered ahead.
+            // Frames are only ever requested outside of onDraw, by the tick itself, so drawing
+            // does no more.
+            long minute = AmbientFrameCache.minuteOf(now);
+            Bitmap ambientFrame = isInAmbientMode() ? ambientFrameCache.getFrame(minute) : null;
+            boolean colonRequested = colonFrameRequested && !wholeFrameRequested
+                    && staticLayerValid && !isInAmbientMode();
+            colonFrameRequested = false;
+            wholeFrameRequested = false;
+            if (colonRequested && wholeFramesLeft == 0) {
+                // Only what falls within the colon gets rasterized; the rest of the buffer
+                // already shows the same minute.
+                canvas.save();
+                canvas.clipRect(colonDirtyRect);
+                drawFrame(canvas, bounds);
+                canvas.restore();
             } else {
-                int hour = calendar.get(Calendar.HOUR);
-                if (hour == 0) {
-                    hour = 12;
+                // Anything but the blink is a change the other buffers do not show yet.
+                wholeFramesLeft = colonRequested ? wholeFramesLeft - 1 : SURFACE_BUFFER_COUNT - 1;
+                if (ambientFrame != null && ambientFrame.getWidth() == bounds.width()
+                        && ambientFrame.getHeight() == bounds.height()) {
+                    drawAmbientFrame(canvas, ambientFrame, minute);
+                } else if (isInAmbientMode() && burnInProtection) {
+                    // Shifted like a prerendered frame, so the face keeps moving meanwhile.
+                    canvas.drawColor(
+                            SunshineWatchFaceHelper.COLOR_VALUE_DEFAULT_AND_AMBIENT_BACKGROUND);
+                    canvas.save();
+                    canvas.translate(getBurnInOffsetX(minute), getBurnInOffsetY(minute));
+                    drawFrame(canvas, bounds);
+                    canvas.restore();
+                } else {
+                    drawFrame(canvas, bounds);
                 }
-                hourString = String.valueOf(hour);
             }
 
-            String minuteString = formatTwoDigitNumber(calendar.get(Calendar.MINUTE));
-            String fullTimeText = hourString.concat(COLON_STRING).concat(minuteString);
+            invalidationScheduler.onFrameDrawn(now);
+
+            long drawEndNs = System.nanoTime();
+            metrics.recordDraw(isInAmbientMode(), drawEndNs - drawStartNs);
+            if (weatherDrawPendingSinceNs != 0) {
+                metrics.recordDataToRender(drawEndNs - weatherDrawPendingSinceNs);
+                weatherDrawPendingSinceNs = 0;
+            }
+        }
+
+        /**
+         * Draws the static layer and the time on top of it.
+         */
+        private void drawFrame(Canvas canvas, Rect bounds) {
+            if (!staticLayerValid || staticLayerBitmap == null
+                    || staticLayerBitmap.getWidth() != bounds.width()
+                    || staticLayerBitmap.getHeight() != bounds.height()) {
+                rebuildStaticLayer(bounds);
+            } else {
+                metrics.recordStaticLayerHit();
+            }
+            canvas.drawBitmap(staticLayerBitmap, 0, 0, null);
+
+            faceSurface.setCanvas(canvas);
+            faceLayout.drawTime(faceSurface, bounds.width(), calendar.get(Calendar.HOUR_OF_DAY),
+                    calendar.get(Calendar.MINUTE), is24Hour,
+                    isInAmbientMode() || shouldDrawColons);
+
+            float colonX = faceLayout.getColonX();
+            float colonY = faceLayout.getColonY();
+            colonDirtyRect.set((int) colonX + colonTextBounds.left - 1,
+                    (int) colonY + colonTextBounds.top - 1,
+                    (int) Math.ceil(colonX + colonTextBounds.right) + 1,
+                    (int) Math.ceil(colonY + colonTextBounds.bottom) + 1);
+        }
 
-            float fullTimeTextWidth = hourPaint.measureText(fullTimeText);
-            float hourPosition = (bounds.width() - fullTimeTextWidth) / 2;
+        /**
+         * Blits a prerendered ambient frame, shifted by a few pixels every minute when the screen
+         * needs burn-in protection.
+         */
+        private void drawAmbientFrame(Canvas canvas, Bitmap ambientFrame, long minute) {
+            canvas.drawColor(SunshineWatchFaceHelper.COLOR_VALUE_DEFAULT_AND_AMBIENT_BACKGROUND);
+            float left = 0;
+            float top = 0;
+            if (burnInProtection) {
+                left = getBurnInOffsetX(minute);
+                top = getBurnInOffsetY(minute);
+            }
+            canvas.drawBitmap(ambientFrame, left, top, ambientFramePaint);
+        }
 
-            float yPosition = yOffset;
+        private float getBurnInOffsetX(long minute) {
+            return BURN_IN_OFFSETS_X[(int) (minute % BURN_IN_OFFSETS_X.length)] * burnInShift;
+        }
 
-            canvas.drawText(hourString, hourPosition, yPosition, hourPaint);
-            x = hourPosition + hourPaint.measureText(hourString);
+        private float getBurnInOffsetY(long minute) {
+            return BURN_IN_OFFSETS_Y[(int) (minute % BURN_IN_OFFSETS_Y.length)] * burnInShift;
+        }
 
-            if (isInAmbientMode() || shouldDrawColons) {
-                canvas.drawText(COLON_STRING, x, yPosition, colonPaint);
+        /**
+         * Asks the update worker, at most once a minute, for the ambient frames from
+         * {@code minute} on that are not rendered yet. Called from the interactive ticks, from
+         * the ambient ticks before they draw, and when entering ambient mode; after the first
+         * request it is one new frame a minute, never rendered in onDraw.
+         */
+        private void requestAmbientFrames(long minute) {
+            if (minute == ambientFramesRequestedMinute || surfaceWidth == 0 || surfaceHeight == 0)
+                return;
+            ambientFramesRequestedMinute = minute;
+
+            if (ambientFrameRequest == null) {
+                ambientFrameRequest = createAmbientFrameRequest();
             }
-            x += colonWidth;
-            canvas.drawText(minuteString, x, yPosition, minutePaint);
+            ambientFrameCache.prerender(weatherUpdateExecutor, ambientFrameRequest, minute);
+        }
 
-            String dateText = dayOfWeekFormat.format(date);
-            float dateTextWidth = datePaint.measureText(dateText);
-            float dateXPosition = (bounds.width() - dateTextWidth) / 2;
-            yPosition += mLineHeight;
-            canvas.drawText(dateText, dateXPosition, yPosition, datePaint);
+        /**
+         * Copies what the ambient frames show, with mask paints made from the text paints.
+         */
+        private AmbientFrameCache.Request createAmbientFrameRequest() {
+            Paint[] maskPaints = new Paint[WatchFaceLayout.TEXT_STYLE_COUNT];
+            for (int style = 0; style < maskPaints.length; style++) {
+                maskPaints[style] = createAmbientMaskPaint(style);
+            }
+            return new AmbientFrameCache.Request(ambientFrameCache.getGeneration(), surfaceWidth,
+                    surfaceHeight, maskPaints, yOffset, mLineHeight,
+                    (TimeZone) calendar.getTimeZone().clone(),
+                    (java.text.DateFormat) dayOfWeekFormat.clone(), is24Hour,
+                    highestTemperature, lowestTemperature, getPeekCardPosition().isEmpty());
+        }
 
-            if (getPeekCardPosition().isEmpty()) {
-                float temperaturesWidth = highestTemperaturePaint.measureText(highestTemperature.concat(lowestTemperature));
-                float xPosition = 0.0f;
+        /**
+         * Copies a text paint for the ambient mask: its ambient color becomes the mask alpha,
+         * keeping the mute alpha of the paint.
+         */
+        private Paint createAmbientMaskPaint(int style) {
+            int ambientColor;
+            if (style == WatchFaceLayout.TEXT_HOUR) {
+                ambientColor = SunshineWatchFaceHelper.COLOR_VALUE_DEFAULT_AND_AMBIENT_HOUR_DIGITS;
+            } else if (style == WatchFaceLayout.TEXT_MINUTE) {
+                ambientColor = SunshineWatchFaceHelper.COLOR_VALUE_DEFAULT_AND_AMBIENT_MINUTE_DIGITS;
+            } else {
+                ambientColor = textPaints[style].getColor();
+            }
+            Paint paint = new Paint(textPaints[style]);
+            paint.setColor(AmbientFrameCache.toMaskColor(ambientColor));
+            paint.setAlpha(paint.getAlpha() * textPaints[style].getAlpha() / 255);
+            paint.setAntiAlias(!lowBitAmbient);
+            return paint;
+        }
 
-                if (weatherBitmap != null && !isInAmbientMode()) {
-                    xPosition = (bounds.width() - (temperaturesWidth + weatherBitmap.getWidth())) / 2;
-                    yPosition += top_margin_image;
-                    canvas.drawBitmap(weatherBitmap, xPosition, yPosition, weatherPaint);
-                    xPosition += weatherBitmap.getWidth();
-                    yPosition = yPosition + ((weatherBitmap.getHeight() + top_margin_image) / 2);
-                } else {
-                    xPosition = (bounds.width() - temperaturesWidth) / 2;
-                    yPosition += mLineHeight;
+        /**
+         * Drops the prerendered ambient frames after something they show changed. In ambient
+         * mode the frames are rendered again right away, once, rather than on the next tick.
+         */
+        private void invalidateAmbientFrames() {
+            ambientFrameCache.invalidate();
+            ambientFrameRequest = null;
+            ambientFramesRequestedMinute = -1;
+            if (isInAmbientMode()) {
+                requestAmbientFrames(AmbientFrameCache.minuteOf(System.currentTimeMillis()));
+            }
+        }
+
+        /**
+         * Draws the background, the date line and the weather block into the static layer bitmap.
+         */
+        private void rebuildStaticLayer(Rect bounds) {
+            if (staticLayerBitmap == null
+                    || staticLayerBitmap.getWidth() != bounds.width()
+                    || staticLayerBitmap.getHeight() != bounds.height()) {
+                if (staticLayerBitmap != null) {
+                    staticLayerBitmap.recycle();
                 }
+                staticLayerBitmap = Bitmap.createBitmap(bounds.width(), bounds.height(),
+                        Bitmap.Config.ARGB_8888);
+                staticLayerCanvas = new Canvas(staticLayerBitmap);
+            }
+            Canvas canvas = staticLayerCanvas;
 
-                canvas.drawText(highestTemperature, xPosition, yPosition,
-                        highestTemperaturePaint);
+            // Draw the background.
+            canvas.drawRect(0, 0, bounds.width(), bounds.height(), backgroundPaint);
 
-                xPosition +=
-                        highestTemperaturePaint.measureText(highestTemperature);
-                canvas.drawText(lowestTemperature, xPosition, yPosition,
-                        lowestTemperaturePaint);
+            faceSurface.setCanvas(canvas);
+            faceSurface.setIcon(weatherBitmap);
+            if (weatherBitmap != null) {
+                faceLayout.setIconSize(weatherBitmap.getWidth(), weatherBitmap.getHeight());
+            } else {
+                faceLayout.setIconSize(0, 0);
+            }
+            faceLayout.drawStaticLayer(faceSurface, bounds.width(),
+                    getPeekCardPosition().isEmpty(), !isInAmbientMode());
+
+            if (areSlotsVisible()) {
+                // The slots start under the weather icon, whether or not one is shown yet.
+                float slotsTop = yOffset + mLineHeight + 2 * top_margin_image + weatherIconSize;
+                watchFaceSlots.layout(bounds.width(), bounds.height(), slotsTop,
+                        (int) slotHeight);
+                watchFaceSlots.draw(canvas, System.currentTimeMillis());
             }
 
+            staticLayerValid = true;
+            metrics.recordStaticLayerRebuild();
+        }
+
+        /**
+         * The slots are only shown with the weather block, in interactive mode.
+         */
+        private boolean areSlotsVisible() {
+            return !isInAmbientMode() && getPeekCardPosition().isEmpty();
+        }
+
+        /**
+         * Marks the static layer as stale, so the next frame redraws it before blitting it, and
+         * makes sure the next tick redraws the whole surface.
+         */
+        private void invalidateStaticLayer(int change) {
+            staticLayerValid = false;
+            invalidationScheduler.requestFullRedraw(change);
+        }
+
+        @Override
+        public void invalidate() {
+            wholeFrameRequested = true;
+            super.invalidate();
+        }
+
+        /**
+         * Asks the framework for a frame like {@link #invalidate()} does, which onDraw clips to the
+         * colon region, for the blink within a minute.
+         */
+        private void invalidateColon() {
+            if (colonDirtyRect.isEmpty()) {
+                invalidate();
+                return;
+            }
+            colonFrameRequested = true;
+            super.invalidate();
         }
 
         @Override
@@ -358,6 +759,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             if (visible) {
                 registerReceiver();
                 calendar.setTimeZone(TimeZone.getDefault());
+                invalidationScheduler.setTimeZone(calendar.getTimeZone());
                 initFormats();
             } else {
                 unregisterReceiver();
@@ -366,6 +768,14 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             updateTimer();
         }
 
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            surfaceWidth = width;
+            surfaceHeight = height;
+            invalidateAmbientFrames();
+        }
+
         @Override
         public void onApplyWindowInsets(WindowInsets insets) {
             super.onApplyWindowInsets(insets);
@@ -385,14 +795,70 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             colonPaint.setTextSize(textSize);
             highestTemperaturePaint.setTextSize(temperatureTextSize);
             lowestTemperaturePaint.setTextSize(temperatureTextSize);
+            watchFaceSlots.labelPaint.setTextSize(
+                    resources.getDimension(R.dimen.slot_label_text_size));
+            watchFaceSlots.valuePaint.setTextSize(
+                    resources.getDimension(R.dimen.slot_value_text_size));
+            watchFaceSlots.invalidateAll();
+
+            colonPaint.getTextBounds(WatchFaceLayout.COLON_STRING, 0,
+                    WatchFaceLayout.COLON_STRING.length(), colonTextBounds);
+            updateTextMetrics();
+            invalidateStaticLayer(WatchFaceInvalidationScheduler.CHANGE_MODE);
+            invalidateAmbientFrames();
+        }
 
-            colonWidth = colonPaint.measureText(COLON_STRING);
+        @Override
+        public void onPeekCardPositionUpdate(Rect rect) {
+            super.onPeekCardPositionUpdate(rect);
+            invalidateStaticLayer(WatchFaceInvalidationScheduler.CHANGE_MODE);
+            invalidateAmbientFrames();
+            // A blink under the peek card would wake the face up for nothing.
+            if (updateRatePolicy.setColonCovered(Rect.intersects(rect, colonDirtyRect))) {
+                updateTimer();
+            }
+            invalidate();
+        }
+
+        /**
+         * Measures everything that onDraw needs to lay out the face, so that the frame itself
+         * never calls measureText on a String.
+         */
+        private void updateTextMetrics() {
+            faceLayout.updateTextMetrics();
+            dateTextDay = -1;
+        }
+
+        private void updateTemperatureMetrics() {
+            faceLayout.setTemperatures(highestTemperature, lowestTemperature);
+        }
+
+        /**
+         * Formats the date line only once per day, or again after the locale or the text size
+         * changed.
+         *
+         * @return true if the date line changed.
+         */
+        private boolean updateDateTextIfNeeded() {
+            int day = calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+            if (day == dateTextDay) {
+                return false;
+            }
+            dateTextDay = day;
+            date.setTime(calendar.getTimeInMillis());
+            dateText = dayOfWeekFormat.format(date);
+            faceLayout.setDateText(dateText);
+            return true;
         }
 
         private void updateTimer() {
             updateTimeHandler.removeMessages(MSG_UPDATE_TIME);
-            if (shouldTimerBeRunning()) {
+            boolean running = shouldTimerBeRunning();
+            updateRatePolicy.setRunning(running, SystemClock.elapsedRealtime());
+            if (running) {
                 updateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
+            } else if (metrics.isEnabled()) {
+                Log.d(TAG, updateRatePolicy.report(SystemClock.elapsedRealtime()));
             }
         }
 
@@ -403,6 +869,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         @Override
         public void onDataChanged(DataEventBuffer dataEvents) {
             Log.d(TAG, "New Data received");
+            // Only the latest weather item of a burst matters, the older ones are superseded.
+            DataMap dataMap = null;
             for (DataEvent event : dataEvents) {
                 if (event.getType() != DataEvent.TYPE_CHANGED) {
                     continue;
@@ -415,44 +883,236 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                     continue;
                 }
 
-                DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                final String latestHighestTemperature = dataMap.getString(HIGHEST_TEMPERATURE_KEY);
-                final String latestLowestTemperature = dataMap.getString(LOWEST_TEMPERATURE_KEY);
+                dataMap = DataMapItem.fromDataItem(item).getDataMap();
+            }
 
-                if (TextUtils.isEmpty(latestHighestTemperature) || TextUtils.isEmpty(latestLowestTemperature))
-                    return;
+            if (dataMap != null) {
+                onWeatherDataMap(dataMap);
+            }
+        }
 
-                if (!latestHighestTemperature.equalsIgnoreCase(highestTemperature)
-                        || !latestLowestTemperature.equalsIgnoreCase(lowestTemperature)) {
+        /**
+         * Stores the forecast of a weather item received from the handheld and shows today's.
+         */
+        private void onWeatherDataMap(DataMap dataMap) {
+            if (!weatherPayload.decode(dataMap.getByteArray(WEATHER_PAYLOAD_KEY))
+                    || weatherPayload.dayCount == 0)
+                return;
+
+            // The same item can be delivered again, for instance after a reconnection.
+            if (weatherPayload.sequence == forecastRingBuffer.getSequence())
+                return;
+            forecastRingBuffer.update(weatherPayload);
+            // The slots read the ring buffer, even when today's weather block is unchanged.
+            watchFaceSlots.invalidate(WatchFaceSlot.TRIGGER_DATA);
+            invalidateStaticLayer(WatchFaceInvalidationScheduler.CHANGE_DATA);
+            invalidate();
+
+            weatherReceivedAtNs = System.nanoTime();
+            forecastDay = NO_FORECAST_DAY;
+            showForecastForDay(getCurrentDay(), dataMap.getString(WEATHER_ICON_NAME_KEY),
+                    dataMap.getAsset(WEATHER_ICON_KEY));
+        }
+
+        /**
+         * Shows the forecast stored for {@code day}, in days since the epoch, if the watch knows
+         * it. The optional asset is the icon sent by the handheld with the latest payload, stored
+         * under {@code assetIconKey}.
+         */
+        private void showForecastForDay(int day, String assetIconKey, Asset iconAsset) {
+            if (day == forecastDay)
+                return;
+
+            int index = forecastRingBuffer.indexOf(day);
+            if (index == -1)
+                return;
+            forecastDay = day;
+
+            boolean metric = forecastRingBuffer.isMetric();
+            String latestHighestTemperature = formatTemperature(
+                    forecastRingBuffer.getMaxTemperature(index), metric);
+            String latestLowestTemperature = formatTemperature(
+                    forecastRingBuffer.getMinTemperature(index), metric);
+            int weatherId = forecastRingBuffer.getWeatherId(index);
+            String iconKey = SunshineWatchFaceHelper.getIconNameForWeatherCondition(weatherId);
+
+            if (iconAsset != null
+                    || !latestHighestTemperature.equals(highestTemperature)
+                    || !latestLowestTemperature.equals(lowestTemperature)
+                    || !TextUtils.equals(iconKey, weatherIconKey)) {
+                scheduleWeatherUpdate(day, latestHighestTemperature, latestLowestTemperature,
+                        weatherId, iconKey, assetIconKey, iconAsset);
+            }
+        }
 
-                    final Asset iconAsset = dataMap.getAsset(WEATHER_ICON_KEY);
+        /**
+         * Returns the current local day, counted in days since the epoch like the dates the
+         * handheld stores its forecast with.
+         */
+        private int getCurrentDay() {
+            long now = System.currentTimeMillis();
+            return (int) ((now + calendar.getTimeZone().getOffset(now)) / DAY_MS);
+        }
 
-                    new Thread(new Runnable() {
+        /**
+         * Queues the decoding of a new payload on the update worker. A newer payload cancels the
+         * one still pending or decoding, so only the latest one ever reaches the screen.
+         */
+        private void scheduleWeatherUpdate(final int day,
+                                           final String latestHighestTemperature,
+                                           final String latestLowestTemperature,
+                                           final int weatherId, final String iconKey,
+                                           final String assetIconKey,
+                                           final Asset iconAsset) {
+            final int generation = weatherUpdateGeneration.incrementAndGet();
+            if (pendingWeatherUpdate != null) {
+                pendingWeatherUpdate.cancel(true);
+            }
+            pendingWeatherUpdate = weatherUpdateExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final WeatherSnapshot snapshot = loadWeatherSnapshot(latestHighestTemperature,
+                            latestLowestTemperature, weatherId, iconKey, assetIconKey, iconAsset,
+                            generation);
+                    if (snapshot == null)
+                        return;
+                    weatherSnapshotStore.write(day, snapshot);
+
+                    updateTimeHandler.post(new Runnable() {
                         @Override
                         public void run() {
-                            updateData(latestHighestTemperature, latestLowestTemperature, iconAsset);
+                            if (!isSuperseded(generation)) {
+                                updateData(snapshot);
+                            }
                         }
-                    }).start();
+                    });
                 }
+            });
+        }
 
+        /**
+         * Runs on the update worker.
+         *
+         * @return the decoded snapshot, or null if a newer payload superseded this one meanwhile.
+         */
+        private WeatherSnapshot loadWeatherSnapshot(String latestHighestTemperature,
+                                                    String latestLowestTemperature,
+                                                    int weatherId, String iconKey,
+                                                    String assetIconKey, Asset iconAsset,
+                                                    int generation) {
+            if (isSuperseded(generation))
+                return null;
+
+            int weatherIconSize = Float.valueOf(getResources().getDimension(R.dimen.weather_icon_size)).intValue();
+            Bitmap weatherIcon = null;
+            if (iconAsset != null) {
+                // The handheld only sends the asset when it does not know the icon is cached.
+                Bitmap receivedIcon = assetToBitmap(assetIconKey, iconAsset, weatherIconSize);
+                if (TextUtils.equals(assetIconKey, iconKey)) {
+                    weatherIcon = receivedIcon;
+                }
+            }
+            if (weatherIcon == null && iconKey != null) {
+                weatherIcon = weatherIconCache.get(iconKey, weatherIconSize);
+                if (weatherIcon == null) {
+                    // The handheld believed the icon was cached, but the file is gone. Publish
+                    // what is really on disk so that the next payload carries the icon again.
+                    Log.d(TAG, "Weather icon " + iconKey + " is no longer cached");
+                    publishCachedIconKeys(weatherIconSize);
+                }
             }
+            if (isSuperseded(generation))
+                return null;
+
+            return new WeatherSnapshot(latestHighestTemperature, latestLowestTemperature,
+                    weatherId, iconKey, weatherIcon);
         }
 
-        private void updateData(String latestHighestTemperature, String latestLowestTemperature, Asset iconAsset) {
-            Bitmap weatherIcon = assetToBitmap(iconAsset);
-            int weatherIconSize = Float.valueOf(getResources().getDimension(R.dimen.weather_icon_size)).intValue();
-            weatherBitmap = Bitmap.createScaledBitmap(weatherIcon, weatherIconSize, weatherIconSize, false);
-            highestTemperature = latestHighestTemperature;
-            lowestTemperature = latestLowestTemperature;
+        /**
+         * Lets the handheld know which icons the watch holds, so that it stops sending them.
+         * Runs on the update worker.
+         */
+        private void publishCachedIconKeys(int weatherIconSize) {
+            PutDataMapRequest mapRequest = PutDataMapRequest.create(SUNSHINE_ICON_CACHE_PATH);
+            mapRequest.getDataMap().putStringArrayList(ICON_CACHE_KEYS_KEY,
+                    weatherIconCache.getCachedIconKeys(weatherIconSize));
+            Wearable.DataApi.putDataItem(mGoogleApiClient, mapRequest.asPutDataRequest());
+        }
+
+        private boolean isSuperseded(int generation) {
+            return Thread.currentThread().isInterrupted()
+                    || generation != weatherUpdateGeneration.get();
+        }
+
+        /**
+         * Shows the snapshot stored by the previous engine, so that the first frame already has
+         * real weather data. The read is small enough to be done synchronously.
+         */
+        private void restoreWeatherSnapshot() {
+            WeatherSnapshot snapshot = weatherSnapshotStore.read();
+            if (snapshot == null)
+                return;
+
+            forecastDay = weatherSnapshotStore.getDay();
+            weatherIconCache.setDisplayedIcon(snapshot.weatherIcon);
+            weatherBitmap = snapshot.weatherIcon;
+            weatherIconKey = snapshot.iconKey;
+            highestTemperature = snapshot.highestTemperature;
+            lowestTemperature = snapshot.lowestTemperature;
+            updateTemperatureMetrics();
+        }
+
+        /**
+         * Applies a decoded snapshot. Must be called on the UI thread.
+         */
+        private void updateData(WeatherSnapshot snapshot) {
+            weatherIconCache.setDisplayedIcon(snapshot.weatherIcon);
+            weatherBitmap = snapshot.weatherIcon;
+            weatherIconKey = snapshot.iconKey;
+            highestTemperature = snapshot.highestTemperature;
+            lowestTemperature = snapshot.lowestTemperature;
+            weatherDrawPendingSinceNs = weatherReceivedAtNs;
+            weatherReceivedAtNs = 0;
+            updateTemperatureMetrics();
+            invalidateAmbientFrames();
             setInteractiveBackgroundColor(R.color.interactive_background_color);
+            invalidateStaticLayer(WatchFaceInvalidationScheduler.CHANGE_DATA);
+            // A one-shot redraw; the tick schedule does not depend on the data.
             invalidate();
-            updateTimer();
         }
 
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             Log.d(TAG, "Connected to Synchronized API");
             Wearable.DataApi.addListener(mGoogleApiClient, this);
+
+            // Pick up an item the handheld sent while no engine was listening.
+            Uri weatherUri = new Uri.Builder()
+                    .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                    .path(SUNSHINE_WEATHER_PATH)
+                    .build();
+            Wearable.DataApi.getDataItems(mGoogleApiClient, weatherUri)
+                    .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(@NonNull DataItemBuffer dataItems) {
+                            try {
+                                if (dataItems.getStatus().isSuccess() && dataItems.getCount() > 0) {
+                                    onWeatherDataMap(DataMapItem.fromDataItem(
+                                            dataItems.get(dataItems.getCount() - 1)).getDataMap());
+                                }
+                            } finally {
+                                dataItems.release();
+                            }
+                        }
+                    });
+
+            final int weatherIconSize = Float.valueOf(getResources().getDimension(R.dimen.weather_icon_size)).intValue();
+            weatherUpdateExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    publishCachedIconKeys(weatherIconSize);
+                }
+            });
         }
 
         @Override
@@ -477,6 +1137,11 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             return paint;
         }
 
+        private String formatTemperature(short fixedPointCelsius, boolean metric) {
+            return String.format(getResources().getString(R.string.format_temperature),
+                    String.valueOf(WeatherPayload.toDisplayDegrees(fixedPointCelsius, metric)));
+        }
+
         private void registerReceiver() {
             if (registeredReceiver) {
                 return;
@@ -500,6 +1165,9 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             dayOfWeekFormat.setCalendar(calendar);
             dateFormat = DateFormat.getDateFormat(SunshineWatchFaceService.this);
             dateFormat.setCalendar(calendar);
+            is24Hour = DateFormat.is24HourFormat(SunshineWatchFaceService.this);
+            dateTextDay = -1;
+            invalidateAmbientFrames();
         }
 
         private void adjustPaintColorToCurrentMode(Paint paint, int interactiveColor,
@@ -518,23 +1186,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             }
         }
 
-        public void setInteractiveUpdateRateMs(long updateRateMs) {
-            if (updateRateMs == mInteractiveUpdateRateMs) {
-                return;
-            }
-
-            mInteractiveUpdateRateMs = updateRateMs;
-
-            if (shouldTimerBeRunning()) {
-                updateTimer();
-            }
-        }
-
-        private String formatTwoDigitNumber(int hour) {
-            return String.format("%02d", hour);
-        }
-
-        public Bitmap assetToBitmap(Asset asset) {
+        public Bitmap assetToBitmap(String iconKey, Asset asset, int targetSize) {
             if (asset == null)
                 return null;
 
@@ -547,7 +1199,21 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             if (assetInputStream == null)
                 return null;
 
-            return BitmapFactory.decodeStream(assetInputStream);
+            long decodeStartNs = System.nanoTime();
+            try {
+                if (iconKey == null) {
+                    Bitmap weatherIcon = weatherIconDecoder.decode(assetInputStream, targetSize);
+                    metrics.recordAssetDecode(System.nanoTime() - decodeStartNs);
+                    return weatherIcon;
+                }
+                Bitmap weatherIcon = weatherIconCache.put(iconKey, targetSize, assetInputStream);
+                metrics.recordAssetDecode(System.nanoTime() - decodeStartNs);
+                publishCachedIconKeys(targetSize);
+                return weatherIcon;
+            } catch (IOException e) {
+                Log.e(TAG, "Error decoding weather icon", e);
+                return null;
+            }
         }
     }
 }
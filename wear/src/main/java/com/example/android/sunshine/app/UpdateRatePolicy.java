@@ -0,0 +1,116 @@
+package com.example.android.sunshine.app;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the interactive tick rate from what the face actually has to show.
+ * <ul>
+ * <li>While the colon blinks, the face ticks once a second: the colon is shown for one second
+ * and hidden for the next, see {@link #isColonShown(long)}, so every tick is a blink edge.</li>
+ * <li>When the blink is off, in mute mode, or the peek card covers the colon, nothing changes
+ * within a minute, so the face ticks on minute boundaries only.</li>
+ * </ul>
+ * New weather data is drawn with a one-shot redraw, outside of this schedule. The policy also
+ * counts the wakeups of the ticks it schedules against the fixed {@link #FIXED_RATE_MS} schedule
+ * the face used to run on, to report how many it saves. It is only used from the UI thread.
+ */
+class UpdateRatePolicy {
+
+    static final long BLINK_RATE_MS = 1000;
+    static final long MINUTE_RATE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Rate the face ticked at in interactive mode, whatever it showed.
+     */
+    static final long FIXED_RATE_MS = 500;
+
+    private boolean mute;
+    private boolean colonCovered;
+
+    private boolean running;
+    private long runningSinceMs;
+    private long runningMs;
+    private long wakeups;
+
+    /**
+     * @return true if the rate changed.
+     */
+    boolean setMute(boolean mute) {
+        long rate = getUpdateRateMs();
+        this.mute = mute;
+        return rate != getUpdateRateMs();
+    }
+
+    /**
+     * @return true if the rate changed.
+     */
+    boolean setColonCovered(boolean colonCovered) {
+        long rate = getUpdateRateMs();
+        this.colonCovered = colonCovered;
+        return rate != getUpdateRateMs();
+    }
+
+    boolean isColonBlinking() {
+        return !mute && !colonCovered;
+    }
+
+    /**
+     * Whether the colon is shown at {@code timeMs}: on even seconds while it blinks, so that it is
+     * on when the minute changes, and always otherwise.
+     */
+    boolean isColonShown(long timeMs) {
+        return !isColonBlinking() || (timeMs / BLINK_RATE_MS) % 2 == 0;
+    }
+
+    long getUpdateRateMs() {
+        return isColonBlinking() ? BLINK_RATE_MS : MINUTE_RATE_MS;
+    }
+
+    /**
+     * Returns the delay until the next tick, aligned on the rate so that blink edges and minute
+     * boundaries land on a tick.
+     */
+    long getDelayMs(long timeMs) {
+        long rate = getUpdateRateMs();
+        return rate - (timeMs % rate);
+    }
+
+    /**
+     * Tells the policy whether the interactive ticks are running, with the current
+     * {@code SystemClock.elapsedRealtime()}.
+     */
+    void setRunning(boolean running, long elapsedRealtimeMs) {
+        if (running == this.running) {
+            return;
+        }
+        this.running = running;
+        if (running) {
+            runningSinceMs = elapsedRealtimeMs;
+        } else {
+            runningMs += elapsedRealtimeMs - runningSinceMs;
+        }
+    }
+
+    void onWakeup() {
+        wakeups++;
+    }
+
+    long getWakeups() {
+        return wakeups;
+    }
+
+    /**
+     * Returns how many wakeups the fixed schedule would have needed while the ticks ran.
+     */
+    long getFixedScheduleWakeups(long elapsedRealtimeMs) {
+        long total = runningMs + (running ? elapsedRealtimeMs - runningSinceMs : 0);
+        return total / FIXED_RATE_MS;
+    }
+
+    String report(long elapsedRealtimeMs) {
+        long fixedWakeups = getFixedScheduleWakeups(elapsedRealtimeMs);
+        return String.format(Locale.US, "ticks wakeups=%d fixedSchedule=%d saved=%d%n",
+                wakeups, fixedWakeups, fixedWakeups - wakeups);
+    }
+}
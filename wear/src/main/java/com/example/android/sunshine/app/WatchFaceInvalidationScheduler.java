@@ -0,0 +1,102 @@
+package com.example.android.sunshine.app;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of which element of the watch face changed since the last drawn frame, so that the
+ * engine only redraws the whole surface on a minute boundary or on a data or mode change, and
+ * just the colon region for the blink in between.
+ */
+class WatchFaceInvalidationScheduler {
+
+    /**
+     * Nothing visible changed since the last frame.
+     */
+    static final int CHANGE_NONE = 0;
+
+    /**
+     * Only the colon blink state changed.
+     */
+    static final int CHANGE_COLON = 1;
+
+    /**
+     * The minute rolled over, so the time digits changed.
+     */
+    static final int CHANGE_MINUTE = 1 << 1;
+
+    /**
+     * The day rolled over, so the date line changed.
+     */
+    static final int CHANGE_DAY = 1 << 2;
+
+    /**
+     * A new weather payload arrived.
+     */
+    static final int CHANGE_DATA = 1 << 3;
+
+    /**
+     * The ambient, mute, peek card or surface state changed.
+     */
+    static final int CHANGE_MODE = 1 << 4;
+
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private TimeZone timeZone = TimeZone.getDefault();
+    private long lastDrawnMinute = -1;
+    private long lastDrawnDay = -1;
+    private int pendingChanges = CHANGE_MODE;
+
+    void setTimeZone(TimeZone timeZone) {
+        this.timeZone = timeZone;
+        pendingChanges |= CHANGE_DAY;
+    }
+
+    /**
+     * Records a change that is not driven by the clock, like a new weather payload or an ambient
+     * mode switch. The next frame is then a full redraw.
+     */
+    void requestFullRedraw(int change) {
+        pendingChanges |= change;
+    }
+
+    /**
+     * Returns the set of changes that the tick at {@code timeMs} has to draw, as a combination of
+     * the {@code CHANGE_*} flags.
+     */
+    int onTick(long timeMs) {
+        int changes = pendingChanges | CHANGE_COLON;
+        if (minuteOf(timeMs) != lastDrawnMinute) {
+            changes |= CHANGE_MINUTE;
+        }
+        if (dayOf(timeMs) != lastDrawnDay) {
+            changes |= CHANGE_DAY;
+        }
+        return changes;
+    }
+
+    /**
+     * Whether the given changes need the whole surface to be redrawn, rather than the colon only.
+     */
+    static boolean needsFullRedraw(int changes) {
+        return (changes & ~CHANGE_COLON) != CHANGE_NONE;
+    }
+
+    /**
+     * Called once a frame showing the time {@code timeMs} has been drawn.
+     */
+    void onFrameDrawn(long timeMs) {
+        lastDrawnMinute = minuteOf(timeMs);
+        lastDrawnDay = dayOf(timeMs);
+        pendingChanges = CHANGE_NONE;
+    }
+
+    private long minuteOf(long timeMs) {
+        return (timeMs + timeZone.getOffset(timeMs)) / MINUTE_MS;
+    }
+
+    private long dayOf(long timeMs) {
+        return (timeMs + timeZone.getOffset(timeMs)) / DAY_MS;
+    }
+}
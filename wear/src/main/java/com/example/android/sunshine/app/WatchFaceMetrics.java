@@ -0,0 +1,188 @@
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in cost metrics of the watch face: frame times split by mode, wakeups, the latency from a
+ * DataItem being received to the weather being drawn, the asset decode time, and how often the
+ * static layer and the slots were drawn again rather than reused.
+ * <p>
+ * Nothing is recorded until {@link #setEnabled(boolean)} turns the metrics on. Recording only
+ * touches preallocated atomic counters and histograms, so it can stay on while comparing builds
+ * without changing what is measured. On debug builds the engine drives it with a broadcast:
+ * <pre>
+ *   adb shell am broadcast -a com.example.android.sunshine.app.WATCH_FACE_METRICS \
+ *       --es command enable|disable|reset|dump
+ * </pre>
+ * {@code dump} logs the report and writes it to {@link #FILE_NAME} in the app's files directory.
+ */
+class WatchFaceMetrics {
+
+    private static final String TAG = WatchFaceMetrics.class.getSimpleName();
+
+    static final String ACTION_METRICS = "com.example.android.sunshine.app.WATCH_FACE_METRICS";
+    static final String EXTRA_COMMAND = "command";
+    static final String COMMAND_ENABLE = "enable";
+    static final String COMMAND_DISABLE = "disable";
+    static final String COMMAND_RESET = "reset";
+    static final String COMMAND_DUMP = "dump";
+
+    static final String FILE_NAME = "watch_face_metrics.txt";
+
+    private volatile boolean enabled;
+    private final AtomicLong startedAt = new AtomicLong(SystemClock.elapsedRealtime());
+
+    private final LatencyHistogram interactiveDrawTimes = new LatencyHistogram();
+    private final LatencyHistogram ambientDrawTimes = new LatencyHistogram();
+    private final LatencyHistogram dataToRenderTimes = new LatencyHistogram();
+    private final LatencyHistogram assetDecodeTimes = new LatencyHistogram();
+    private final AtomicLong handlerWakeups = new AtomicLong();
+    private final AtomicLong timeTicks = new AtomicLong();
+    private final AtomicLong staticLayerCacheHits = new AtomicLong();
+    private final AtomicLong staticLayerRebuilds = new AtomicLong();
+    private final AtomicLong slotRenders = new AtomicLong();
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            reset();
+        }
+        this.enabled = enabled;
+    }
+
+    void recordDraw(boolean ambient, long durationNs) {
+        if (enabled) {
+            (ambient ? ambientDrawTimes : interactiveDrawTimes).record(toMicros(durationNs));
+        }
+    }
+
+    void recordDataToRender(long durationNs) {
+        if (enabled) {
+            dataToRenderTimes.record(toMicros(durationNs));
+        }
+    }
+
+    void recordAssetDecode(long durationNs) {
+        if (enabled) {
+            assetDecodeTimes.record(toMicros(durationNs));
+        }
+    }
+
+    /**
+     * Counts a wakeup of the interactive update handler.
+     */
+    void recordHandlerWakeup() {
+        if (enabled) {
+            handlerWakeups.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a system time tick, which wakes the face up in ambient mode.
+     */
+    void recordTimeTick() {
+        if (enabled) {
+            timeTicks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a frame that blitted the cached static layer.
+     */
+    void recordStaticLayerHit() {
+        if (enabled) {
+            staticLayerCacheHits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a frame that had to draw the static layer again.
+     */
+    void recordStaticLayerRebuild() {
+        if (enabled) {
+            staticLayerRebuilds.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a slot drawn again, as opposed to a blit of its cached cell.
+     */
+    void recordSlotRender() {
+        if (enabled) {
+            slotRenders.incrementAndGet();
+        }
+    }
+
+    void reset() {
+        interactiveDrawTimes.reset();
+        ambientDrawTimes.reset();
+        dataToRenderTimes.reset();
+        assetDecodeTimes.reset();
+        handlerWakeups.set(0);
+        timeTicks.set(0);
+        staticLayerCacheHits.set(0);
+        staticLayerRebuilds.set(0);
+        slotRenders.set(0);
+        startedAt.set(SystemClock.elapsedRealtime());
+    }
+
+    String report() {
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - startedAt.get());
+        double minutes = elapsedMs / (double) TimeUnit.MINUTES.toMillis(1);
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "enabled=%b elapsed=%.1fmin%n", enabled, minutes));
+        builder.append(String.format(Locale.US, "wakeups/min handler=%.1f timeTick=%.1f%n",
+                handlerWakeups.get() / minutes, timeTicks.get() / minutes));
+        builder.append(String.format(Locale.US, "staticLayer hits=%d rebuilds=%d slotRenders=%d%n",
+                staticLayerCacheHits.get(), staticLayerRebuilds.get(), slotRenders.get()));
+        appendHistogram(builder, "draw.interactive", interactiveDrawTimes);
+        appendHistogram(builder, "draw.ambient", ambientDrawTimes);
+        appendHistogram(builder, "data.toRender", dataToRenderTimes);
+        appendHistogram(builder, "asset.decode", assetDecodeTimes);
+        return builder.toString();
+    }
+
+    /**
+     * Logs the report, followed by {@code extraReport}, and writes it to {@link #FILE_NAME} under
+     * {@code filesDir}.
+     */
+    void dump(File filesDir, String extraReport) {
+        String report = report() + extraReport;
+        Log.d(TAG, report);
+        File file = new File(filesDir, FILE_NAME);
+        try {
+            FileWriter writer = new FileWriter(file);
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing " + file, e);
+        }
+    }
+
+    private static void appendHistogram(StringBuilder builder, String name,
+                                        LatencyHistogram histogram) {
+        builder.append(String.format(Locale.US,
+                "%s count=%d mean=%dus p50=%dus p90=%dus p99=%dus max=%dus%n",
+                name, histogram.getTotalCount(), histogram.getMean(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getMax()));
+    }
+
+    private static long toMicros(long durationNs) {
+        return TimeUnit.NANOSECONDS.toMicros(durationNs);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * One complication-style cell of the face, such as the humidity or the sunrise time.
+ * <p>
+ * A slot declares what makes its content stale: a set of {@code TRIGGER_*} flags and, for
+ * content that changes with time alone, a refresh interval. {@link WatchFaceSlots} keeps the
+ * rendered cell in a bitmap and only calls {@link #render} again once one of those fires, so the
+ * slots cost nothing on a regular frame.
+ */
+abstract class WatchFaceSlot {
+
+    /**
+     * A new forecast was received.
+     */
+    static final int TRIGGER_DATA = 1;
+
+    /**
+     * The local day changed.
+     */
+    static final int TRIGGER_DAY = 1 << 1;
+
+    final String name;
+
+    /**
+     * Cached rendering of the cell, owned by {@link WatchFaceSlots}.
+     */
+    Bitmap bitmap;
+    boolean stale = true;
+    long renderedAtMs;
+
+    WatchFaceSlot(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the {@code TRIGGER_*} flags that make the content stale. A change of the cell size
+     * or of the face's style always does.
+     */
+    abstract int getTriggers();
+
+    /**
+     * Returns how long the content stays valid on its own, or 0 if only the triggers matter.
+     */
+    long getRefreshIntervalMs() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of grid columns the cell spans.
+     */
+    int getColumnSpan() {
+        return 1;
+    }
+
+    /**
+     * Draws the cell into a transparent canvas of the given size.
+     */
+    abstract void render(Canvas canvas, int width, int height, WatchFaceSlots slots, long nowMs);
+}
@@ -0,0 +1,242 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The grid of {@link WatchFaceSlot}s drawn under the weather block, and the cache of their
+ * rendered cells.
+ * <p>
+ * Each slot is rendered into a bitmap of its cell, which is blitted as is until one of the slot's
+ * triggers fires, its refresh interval runs out, or the cell size or style changes. Rendering a
+ * slot may format strings and read the forecast; blitting it does neither. The slots shown, and
+ * their order, come from the {@code watch_face_slots} string array. Only used from the UI thread.
+ */
+class WatchFaceSlots {
+
+    private static final String TAG = WatchFaceSlots.class.getSimpleName();
+
+    static final int COLUMN_COUNT = 3;
+
+    /**
+     * Share of the face width taken by the grid, which keeps the cells clear of the edge of a
+     * round screen.
+     */
+    private static final float GRID_WIDTH_FRACTION = 0.75f;
+
+    private final Context context;
+    private final ForecastRingBuffer forecast;
+    private final WatchFaceSlot[] slots;
+    private final Rect[] cells;
+    private final Canvas slotCanvas = new Canvas();
+
+    /**
+     * Paints of the small label line and of the value line of a cell, both centered.
+     */
+    final Paint labelPaint;
+    final Paint valuePaint;
+
+    private int day;
+    private int gridWidth = -1;
+    private int gridHeight = -1;
+    private float gridTop;
+    private int cellHeight;
+
+    /**
+     * Counts the slot renders, as opposed to blits of a cached cell.
+     */
+    private final WatchFaceMetrics metrics;
+
+    WatchFaceSlots(Context context, String[] names, ForecastRingBuffer forecast,
+                   Paint labelPaint, Paint valuePaint, WatchFaceMetrics metrics) {
+        this.context = context;
+        this.metrics = metrics;
+        this.forecast = forecast;
+        this.labelPaint = labelPaint;
+        this.valuePaint = valuePaint;
+        labelPaint.setTextAlign(Paint.Align.CENTER);
+        valuePaint.setTextAlign(Paint.Align.CENTER);
+
+        List<WatchFaceSlot> configured = new ArrayList<>(names.length);
+        for (String name : names) {
+            WatchFaceSlot slot = WeatherSlots.create(name);
+            if (slot == null) {
+                Log.e(TAG, "Unknown watch face slot: " + name);
+                continue;
+            }
+            configured.add(slot);
+        }
+        slots = configured.toArray(new WatchFaceSlot[configured.size()]);
+        cells = new Rect[slots.length];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = new Rect();
+        }
+    }
+
+    /**
+     * Places the grid on a face of the given size, its first row starting at {@code top}. Slots
+     * whose row would not fit are not shown.
+     */
+    void layout(int width, int height, float top, int cellHeight) {
+        if (width == gridWidth && height == gridHeight && top == gridTop
+                && cellHeight == this.cellHeight) {
+            return;
+        }
+        gridWidth = width;
+        gridHeight = height;
+        gridTop = top;
+        this.cellHeight = cellHeight;
+
+        int cellWidth = (int) (width * GRID_WIDTH_FRACTION / COLUMN_COUNT);
+        int left = (width - cellWidth * COLUMN_COUNT) / 2;
+        int row = 0;
+        int column = 0;
+        for (int i = 0; i < slots.length; i++) {
+            int span = Math.min(slots[i].getColumnSpan(), COLUMN_COUNT);
+            if (column + span > COLUMN_COUNT) {
+                row++;
+                column = 0;
+            }
+            int cellTop = (int) top + row * cellHeight;
+            if (cellTop + cellHeight > height) {
+                cells[i].setEmpty();
+            } else {
+                cells[i].set(left + column * cellWidth, cellTop,
+                        left + (column + span) * cellWidth, cellTop + cellHeight);
+            }
+            column += span;
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Marks the slots that depend on any of the {@code WatchFaceSlot.TRIGGER_*} flags as stale.
+     */
+    void invalidate(int triggers) {
+        for (WatchFaceSlot slot : slots) {
+            if ((slot.getTriggers() & triggers) != 0) {
+                slot.stale = true;
+            }
+        }
+    }
+
+    /**
+     * Marks every slot as stale, after a change of the paints.
+     */
+    void invalidateAll() {
+        for (WatchFaceSlot slot : slots) {
+            slot.stale = true;
+        }
+    }
+
+    /**
+     * Sets the local day the slots show, in days since the epoch.
+     */
+    void setDay(int day) {
+        if (day != this.day) {
+            this.day = day;
+            invalidate(WatchFaceSlot.TRIGGER_DAY);
+        }
+    }
+
+    /**
+     * Returns true if a visible slot has to be rendered again, so the layer holding the grid
+     * has to be redrawn.
+     */
+    boolean needsRefresh(long nowMs) {
+        for (int i = 0; i < slots.length; i++) {
+            if (!cells[i].isEmpty() && needsRender(slots[i], nowMs)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Draws the visible slots, rendering only the cells that are stale.
+     */
+    void draw(Canvas canvas, long nowMs) {
+        for (int i = 0; i < slots.length; i++) {
+            Rect cell = cells[i];
+            if (cell.isEmpty()) {
+                continue;
+            }
+            WatchFaceSlot slot = slots[i];
+            if (slot.bitmap == null || slot.bitmap.getWidth() != cell.width()
+                    || slot.bitmap.getHeight() != cell.height()) {
+                if (slot.bitmap != null) {
+                    slot.bitmap.recycle();
+                }
+                slot.bitmap = Bitmap.createBitmap(cell.width(), cell.height(),
+                        Bitmap.Config.ARGB_8888);
+                slot.stale = true;
+            }
+            if (needsRender(slot, nowMs)) {
+                slotCanvas.setBitmap(slot.bitmap);
+                slotCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                slot.render(slotCanvas, cell.width(), cell.height(), this, nowMs);
+                slotCanvas.setBitmap(null);
+                slot.stale = false;
+                slot.renderedAtMs = nowMs;
+                metrics.recordSlotRender();
+            }
+            canvas.drawBitmap(slot.bitmap, cell.left, cell.top, null);
+        }
+    }
+
+    void release() {
+        for (WatchFaceSlot slot : slots) {
+            if (slot.bitmap != null) {
+                slot.bitmap.recycle();
+                slot.bitmap = null;
+            }
+        }
+    }
+
+    Context getContext() {
+        return context;
+    }
+
+    ForecastRingBuffer getForecast() {
+        return forecast;
+    }
+
+    int getDay() {
+        return day;
+    }
+
+    /**
+     * Returns the forecast slot of the day {@code dayOffset} days after the shown day, or -1 if
+     * the watch does not know it.
+     */
+    int getForecastIndex(int dayOffset) {
+        return forecast.indexOf(day + dayOffset);
+    }
+
+    /**
+     * Draws a label line over a value line, centered in a cell of the given size.
+     */
+    void drawLabelAndValue(Canvas canvas, float centerX, int height, String label,
+                           String value) {
+        canvas.drawText(label, centerX, -labelPaint.ascent(), labelPaint);
+        canvas.drawText(value, centerX, height - valuePaint.descent(), valuePaint);
+    }
+
+    private static boolean needsRender(WatchFaceSlot slot, long nowMs) {
+        if (slot.stale) {
+            return true;
+        }
+        long intervalMs = slot.getRefreshIntervalMs();
+        return intervalMs > 0
+                && (nowMs - slot.renderedAtMs >= intervalMs || nowMs < slot.renderedAtMs);
+    }
+}
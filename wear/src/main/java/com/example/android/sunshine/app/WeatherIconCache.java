@@ -0,0 +1,148 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Memory and disk cache of decoded weather icons, keyed by the icon name sent by the handheld
+ * plus the size the icon is drawn at.
+ * <p>
+ * There are only a handful of distinct icons, so once the watch has seen one it never needs the
+ * handheld to send it again. The keys held on disk are published back to the handheld through
+ * {@link #getCachedIconKeys(int)}. All the methods but {@link #setDisplayedIcon(Bitmap)} are meant
+ * to be called from the single update worker.
+ */
+class WeatherIconCache {
+
+    private static final String TAG = WeatherIconCache.class.getSimpleName();
+
+    static final String CACHE_DIRECTORY = "weather_icons";
+    private static final String ICON_FILE_EXTENSION = ".png";
+    private static final String KEY_SIZE_SEPARATOR = "_";
+    private static final int MEMORY_CACHE_BYTES = 256 * 1024;
+
+    private final File directory;
+    private final WeatherIconDecoder decoder;
+    private final LruCache<String, Bitmap> memoryCache;
+
+    /**
+     * Icon currently drawn by the face, which must not be handed back to the decoder for reuse
+     * when it is evicted.
+     */
+    private volatile Bitmap displayedIcon;
+
+    WeatherIconCache(File cacheDir, WeatherIconDecoder decoder) {
+        this.directory = new File(cacheDir, CACHE_DIRECTORY);
+        this.decoder = decoder;
+        this.memoryCache = new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                        Bitmap newValue) {
+                if (evicted && oldValue != displayedIcon) {
+                    WeatherIconCache.this.decoder.release(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the icon from memory or disk, or null if the watch has never received it at this
+     * size or its file has been evicted. A file that cannot be decoded is deleted.
+     */
+    Bitmap get(String iconKey, int size) {
+        String key = cacheKey(iconKey, size);
+        Bitmap icon = memoryCache.get(key);
+        if (icon != null) {
+            return icon;
+        }
+
+        File file = new File(directory, key + ICON_FILE_EXTENSION);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            icon = decoder.decode(new FileInputStream(file), size);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading cached icon " + key, e);
+            return null;
+        }
+        if (icon == null) {
+            // Drop the unreadable file so that it is no longer published as cached.
+            Log.e(TAG, "Could not decode cached icon " + key);
+            if (!file.delete()) {
+                Log.e(TAG, "Could not delete cached icon " + key);
+            }
+            return null;
+        }
+        memoryCache.put(key, icon);
+        return icon;
+    }
+
+    /**
+     * Decodes an icon received from the handheld and stores it in both caches.
+     */
+    Bitmap put(String iconKey, int size, InputStream inputStream) throws IOException {
+        Bitmap icon = decoder.decode(inputStream, size);
+        if (icon == null) {
+            return null;
+        }
+        String key = cacheKey(iconKey, size);
+        memoryCache.put(key, icon);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create the icon cache directory");
+            return icon;
+        }
+        // Write to a temporary file first so that a crash never leaves a truncated icon behind.
+        File temporaryFile = new File(directory, key + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+        try {
+            icon.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+        } finally {
+            outputStream.close();
+        }
+        if (!temporaryFile.renameTo(new File(directory, key + ICON_FILE_EXTENSION))) {
+            Log.e(TAG, "Could not store icon " + key);
+        }
+        return icon;
+    }
+
+    /**
+     * Returns the names of the icons stored on disk at the given size.
+     */
+    ArrayList<String> getCachedIconKeys(int size) {
+        ArrayList<String> iconKeys = new ArrayList<>();
+        String suffix = KEY_SIZE_SEPARATOR + size + ICON_FILE_EXTENSION;
+        String[] fileNames = directory.list();
+        if (fileNames == null) {
+            return iconKeys;
+        }
+        for (String fileName : fileNames) {
+            if (fileName.endsWith(suffix)) {
+                iconKeys.add(fileName.substring(0, fileName.length() - suffix.length()));
+            }
+        }
+        return iconKeys;
+    }
+
+    void setDisplayedIcon(Bitmap icon) {
+        displayedIcon = icon;
+    }
+
+    private static String cacheKey(String iconKey, int size) {
+        return iconKey + KEY_SIZE_SEPARATOR + size;
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decodes the weather icon sent by the handheld straight to the size it is drawn at.
+ * <p>
+ * The bounds are read first to pick an {@code inSampleSize}, and the remaining scaling happens
+ * inside the decoder, so no full size bitmap or scaled copy is ever allocated. The bitmap that the
+ * face stopped showing is handed back through {@link #release(Bitmap)} and reused as
+ * {@code inBitmap} by the next decode.
+ * <p>
+ * {@link #decode(InputStream, int)} is meant to be called from a single worker thread.
+ */
+class WeatherIconDecoder {
+
+    private static final String TAG = WeatherIconDecoder.class.getSimpleName();
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+    private static final int PNG_COLOR_TYPE_OFFSET = 25;
+    private static final int PNG_COLOR_TYPE_GRAYSCALE = 0;
+    private static final int PNG_COLOR_TYPE_TRUECOLOR = 2;
+
+    private final AtomicReference<Bitmap> reusableBitmap = new AtomicReference<>();
+    private byte[] buffer = new byte[16 * 1024];
+
+    /**
+     * Decodes the PNG read from {@code inputStream} into a bitmap of {@code targetSize} pixels
+     * on its largest side, or returns null if it could not be decoded.
+     */
+    Bitmap decode(InputStream inputStream, int targetSize) throws IOException {
+        int length = readFully(inputStream);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(buffer, 0, length, options);
+        int sourceSize = Math.max(options.outWidth, options.outHeight);
+        if (sourceSize <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (sourceSize / (options.inSampleSize * 2) >= targetSize) {
+            options.inSampleSize *= 2;
+        }
+        // Let the decoder scale the sampled image the rest of the way down to the target size.
+        options.inScaled = true;
+        options.inDensity = sourceSize / options.inSampleSize;
+        options.inTargetDensity = targetSize;
+        options.inPreferredConfig = hasAlpha(buffer, length)
+                ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+        options.inMutable = true;
+
+        Bitmap reusable = reusableBitmap.getAndSet(null);
+        if (reusable != null && reusable.getConfig() == options.inPreferredConfig) {
+            options.inBitmap = reusable;
+            try {
+                return BitmapFactory.decodeByteArray(buffer, 0, length, options);
+            } catch (IllegalArgumentException e) {
+                // The reusable bitmap is too small for this icon, allocate a new one instead.
+                Log.d(TAG, "Could not reuse icon bitmap", e);
+                options.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeByteArray(buffer, 0, length, options);
+    }
+
+    /**
+     * Hands back a bitmap that is no longer drawn, so the next decode can reuse its memory.
+     */
+    void release(Bitmap bitmap) {
+        if (bitmap != null && bitmap.isMutable()) {
+            reusableBitmap.set(bitmap);
+        }
+    }
+
+    private int readFully(InputStream inputStream) throws IOException {
+        int length = 0;
+        try {
+            int read;
+            while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+        return length;
+    }
+
+    /**
+     * Whether the PNG may contain transparent pixels. Opaque grayscale and truecolor images
+     * without a tRNS chunk can be decoded to RGB_565, everything else keeps its alpha channel.
+     */
+    static boolean hasAlpha(byte[] data, int length) {
+        if (length <= PNG_COLOR_TYPE_OFFSET) {
+            return true;
+        }
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (data[i] != PNG_SIGNATURE[i]) {
+                return true;
+            }
+        }
+        int colorType = data[PNG_COLOR_TYPE_OFFSET];
+        if (colorType != PNG_COLOR_TYPE_GRAYSCALE && colorType != PNG_COLOR_TYPE_TRUECOLOR) {
+            return true;
+        }
+
+        // Walk the chunks up to the image data, looking for a transparency chunk.
+        int offset = PNG_SIGNATURE.length;
+        while (offset + 8 <= length) {
+            int chunkLength = ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                    | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+            if (isChunk(data, offset + 4, 't', 'R', 'N', 'S')) {
+                return true;
+            }
+            if (isChunk(data, offset + 4, 'I', 'D', 'A', 'T') || chunkLength < 0) {
+                return false;
+            }
+            // Length, type, data and CRC.
+            offset += 12 + chunkLength;
+        }
+        return false;
+    }
+
+    private static boolean isChunk(byte[] data, int offset, char a, char b, char c, char d) {
+        return data[offset] == a && data[offset + 1] == b
+                && data[offset + 2] == c && data[offset + 3] == d;
+    }
+}
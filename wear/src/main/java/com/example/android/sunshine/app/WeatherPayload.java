@@ -0,0 +1,117 @@
+package com.example.android.sunshine.app;
+
+/**
+ * Decodes the compact binary forecast sent by the handheld under the weather DataItem.
+ * <p>
+ * Layout, big endian:
+ * <pre>
+ *   byte   version
+ *   byte   flags            bit 0 set when the user prefers metric units
+ *   int    sequence number
+ *   int    first day        local date of the first forecast day, in days since the epoch
+ *   byte   day count
+ *   float  latitude         of the forecast location, since version 2
+ *   float  longitude
+ *   day count times:
+ *     short  weather id
+ *     short  max temperature, tenths of a degree Celsius
+ *     short  min temperature, tenths of a degree Celsius
+ *     byte   humidity, percent                         since version 2
+ *     short  pressure, tenths of a hectopascal         since version 2
+ *     short  wind speed, tenths of the stored unit     since version 2
+ *     short  wind direction, degrees                   since version 2
+ * </pre>
+ * Version 1 payloads are still read, without the location nor the day details. The decoded values are kept in preallocated arrays, so an instance can be reused for every
+ * payload without allocating. It is not thread safe.
+ */
+class WeatherPayload {
+
+    static final int VERSION_1 = 1;
+    static final int VERSION = 2;
+    static final int FLAG_METRIC = 1;
+    static final int MAX_DAYS = 14;
+
+    /**
+     * Humidity of a day whose details are not known.
+     */
+    static final byte NO_HUMIDITY = -1;
+
+    private static final int DAY_COUNT_OFFSET = 1 + 1 + 4 + 4;
+    private static final int HEADER_SIZE_V1 = DAY_COUNT_OFFSET + 1;
+    private static final int HEADER_SIZE = HEADER_SIZE_V1 + 4 + 4;
+    private static final int DAY_SIZE_V1 = 2 + 2 + 2;
+    private static final int DAY_SIZE = DAY_SIZE_V1 + 1 + 2 + 2 + 2;
+
+    boolean metric;
+    int sequence;
+    int firstDay;
+    int dayCount;
+    float latitude;
+    float longitude;
+    final int[] weatherIds = new int[MAX_DAYS];
+    final short[] maxTemperatures = new short[MAX_DAYS];
+    final short[] minTemperatures = new short[MAX_DAYS];
+    final byte[] humidities = new byte[MAX_DAYS];
+    final short[] pressures = new short[MAX_DAYS];
+    final short[] windSpeeds = new short[MAX_DAYS];
+    final short[] windDirections = new short[MAX_DAYS];
+
+    /**
+     * Reads {@code data} into this payload.
+     *
+     * @return false if the payload is truncated or of an unknown version, in which case the
+     * previous values are left untouched.
+     */
+    boolean decode(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE_V1
+                || (data[0] != VERSION && data[0] != VERSION_1)) {
+            return false;
+        }
+        boolean details = data[0] != VERSION_1;
+        int headerSize = details ? HEADER_SIZE : HEADER_SIZE_V1;
+        int daySize = details ? DAY_SIZE : DAY_SIZE_V1;
+        int count = Math.min(data[DAY_COUNT_OFFSET] & 0xff, MAX_DAYS);
+        if (data.length < headerSize + count * daySize) {
+            return false;
+        }
+
+        metric = (data[1] & FLAG_METRIC) != 0;
+        sequence = readInt(data, 2);
+        firstDay = readInt(data, 6);
+        dayCount = count;
+        latitude = details ? Float.intBitsToFloat(readInt(data, HEADER_SIZE_V1)) : Float.NaN;
+        longitude = details ? Float.intBitsToFloat(readInt(data, HEADER_SIZE_V1 + 4)) : Float.NaN;
+        int offset = headerSize;
+        for (int day = 0; day < count; day++, offset += daySize) {
+            weatherIds[day] = readShort(data, offset);
+            maxTemperatures[day] = readShort(data, offset + 2);
+            minTemperatures[day] = readShort(data, offset + 4);
+            if (details) {
+                humidities[day] = data[offset + 6];
+                pressures[day] = readShort(data, offset + 7);
+                windSpeeds[day] = readShort(data, offset + 9);
+                windDirections[day] = readShort(data, offset + 11);
+            } else {
+                humidities[day] = NO_HUMIDITY;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a temperature in tenths of a degree Celsius to whole degrees in the user's units.
+     */
+    static int toDisplayDegrees(short fixedPointCelsius, boolean metric) {
+        float celsius = fixedPointCelsius / 10f;
+        return Math.round(metric ? celsius : celsius * 1.8f + 32);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static short readShort(byte[] data, int offset) {
+        return (short) (((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff));
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.format.DateFormat;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The slots the face can show, by the name used in the {@code watch_face_slots} array.
+ */
+final class WeatherSlots {
+
+    static final String TEMPERATURE = "temperature";
+    static final String HUMIDITY = "humidity";
+    static final String WIND = "wind";
+    static final String PRESSURE = "pressure";
+    static final String FORECAST_STRIP = "forecast_strip";
+    static final String SUNRISE = "sunrise";
+
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+    private static final float KMH_TO_MPH = 0.621371f;
+
+    private WeatherSlots() {
+    }
+
+    /**
+     * Returns a new slot of the given name, or null if there is no such slot.
+     */
+    static WatchFaceSlot create(String name) {
+        switch (name) {
+            case TEMPERATURE:
+                return new TemperatureSlot();
+            case HUMIDITY:
+                return new HumiditySlot();
+            case WIND:
+                return new WindSlot();
+            case PRESSURE:
+                return new PressureSlot();
+            case FORECAST_STRIP:
+                return new ForecastStripSlot();
+            case SUNRISE:
+                return new SunriseSlot();
+            default:
+                return null;
+        }
+    }
+
+    private static String formatTemperature(Context context, short fixedPointCelsius,
+                                            boolean metric) {
+        return context.getString(R.string.format_temperature,
+                String.valueOf(WeatherPayload.toDisplayDegrees(fixedPointCelsius, metric)));
+    }
+
+    /**
+     * Returns the compass direction of a wind blowing from {@code degrees}, like the handheld's
+     * detail view shows it.
+     */
+    static String getCompassDirection(int degrees) {
+        String[] directions = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+        int normalized = ((degrees % 360) + 360) % 360;
+        return directions[(int) ((normalized + 22.5f) / 45) % directions.length];
+    }
+
+    /**
+     * Base of the slots showing a detail of today's forecast, which change with new data and
+     * with the day.
+     */
+    private abstract static class ForecastSlot extends WatchFaceSlot {
+
+        ForecastSlot(String name) {
+            super(name);
+        }
+
+        @Override
+        int getTriggers() {
+            return TRIGGER_DATA | TRIGGER_DAY;
+        }
+
+        @Override
+        void render(Canvas canvas, int width, int height, WatchFaceSlots slots, long nowMs) {
+            Context context = slots.getContext();
+            int index = slots.getForecastIndex(0);
+            String value = index == -1 ? null : formatValue(context, slots.getForecast(), index);
+            slots.drawLabelAndValue(canvas, width / 2f, height, getLabel(context, slots, index),
+                    value != null ? value : context.getString(R.string.slot_no_value));
+        }
+
+        String getLabel(Context context, WatchFaceSlots slots, int index) {
+            return context.getString(getLabelId());
+        }
+
+        abstract int getLabelId();
+
+        /**
+         * Returns the value shown for the forecast slot {@code index}, or null if it is unknown.
+         */
+        abstract String formatValue(Context context, ForecastRingBuffer forecast, int index);
+    }
+
+    static final class TemperatureSlot extends ForecastSlot {
+
+        TemperatureSlot() {
+            super(TEMPERATURE);
+        }
+
+        @Override
+        int getLabelId() {
+            return R.string.slot_temperature;
+        }
+
+        @Override
+        String formatValue(Context context, ForecastRingBuffer forecast, int index) {
+            boolean metric = forecast.isMetric();
+            return context.getString(R.string.format_high_low,
+                    formatTemperature(context, forecast.getMaxTemperature(index), metric),
+                    formatTemperature(context, forecast.getMinTemperature(index), metric));
+        }
+    }
+
+    static final class HumiditySlot extends ForecastSlot {
+
+        HumiditySlot() {
+            super(HUMIDITY);
+        }
+
+        @Override
+        int getLabelId() {
+            return R.string.slot_humidity;
+        }
+
+        @Override
+        String formatValue(Context context, ForecastRingBuffer forecast, int index) {
+            int humidity = forecast.getHumidity(index);
+            if (humidity == WeatherPayload.NO_HUMIDITY)
+                return null;
+            return context.getString(R.string.format_humidity, humidity);
+        }
+    }
+
+    static final class WindSlot extends ForecastSlot {
+
+        WindSlot() {
+            super(WIND);
+        }
+
+        @Override
+        int getLabelId() {
+            return R.string.slot_wind;
+        }
+
+        @Override
+        String getLabel(Context context, WatchFaceSlots slots, int index) {
+            if (index == -1 || slots.getForecast().getHumidity(index) == WeatherPayload.NO_HUMIDITY)
+                return context.getString(R.string.slot_wind);
+            return context.getString(R.string.format_wind_label, getCompassDirection(
+                    slots.getForecast().getWindDirection(index)));
+        }
+
+        @Override
+        String formatValue(Context context, ForecastRingBuffer forecast, int index) {
+            if (forecast.getHumidity(index) == WeatherPayload.NO_HUMIDITY)
+                return null;
+            // The handheld stores the speed in km/h, in tenths.
+            float kmh = forecast.getWindSpeed(index) / 10f;
+            if (forecast.isMetric()) {
+                return context.getString(R.string.format_wind_kmh, Math.round(kmh));
+            }
+            return context.getString(R.string.format_wind_mph, Math.round(kmh * KMH_TO_MPH));
+        }
+    }
+
+    static final class PressureSlot extends ForecastSlot {
+
+        PressureSlot() {
+            super(PRESSURE);
+        }
+
+        @Override
+        int getLabelId() {
+            return R.string.slot_pressure;
+        }
+
+        @Override
+        String formatValue(Context context, ForecastRingBuffer forecast, int index) {
+            if (forecast.getHumidity(index) == WeatherPayload.NO_HUMIDITY)
+                return null;
+            return context.getString(R.string.format_pressure,
+                    Math.round(forecast.getPressure(index) / 10f));
+        }
+    }
+
+    /**
+     * The day name and highest temperature of the next days, over the whole row.
+     */
+    static final class ForecastStripSlot extends WatchFaceSlot {
+
+        static final int DAY_COUNT = 3;
+
+        /**
+         * Formats the day names, built again only when the locale changes. Days since the epoch
+         * are local days, so they are formatted as UTC dates whatever the time zone of the watch.
+         */
+        private SimpleDateFormat dayFormat;
+        private Locale dayFormatLocale;
+        private final Date date = new Date();
+
+        ForecastStripSlot() {
+            super(FORECAST_STRIP);
+        }
+
+        @Override
+        int getTriggers() {
+            return TRIGGER_DATA | TRIGGER_DAY;
+        }
+
+        @Override
+        int getColumnSpan() {
+            return WatchFaceSlots.COLUMN_COUNT;
+        }
+
+        @Override
+        void render(Canvas canvas, int width, int height, WatchFaceSlots slots, long nowMs) {
+            Context context = slots.getContext();
+            ForecastRingBuffer forecast = slots.getForecast();
+            Locale locale = Locale.getDefault();
+            if (!locale.equals(dayFormatLocale)) {
+                dayFormat = new SimpleDateFormat("EEE", locale);
+                dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+                dayFormatLocale = locale;
+            }
+            float dayWidth = width / (float) DAY_COUNT;
+            for (int offset = 1; offset <= DAY_COUNT; offset++) {
+                date.setTime((slots.getDay() + offset) * DAY_MS);
+                int index = slots.getForecastIndex(offset);
+                String value = index == -1 ? context.getString(R.string.slot_no_value)
+                        : formatTemperature(context, forecast.getMaxTemperature(index),
+                        forecast.isMetric());
+                slots.drawLabelAndValue(canvas, dayWidth * (offset - 0.5f), height,
+                        dayFormat.format(date), value);
+            }
+        }
+    }
+
+    /**
+     * The time of the next sunrise or sunset at the forecast location.
+     */
+    static final class SunriseSlot extends WatchFaceSlot {
+
+        /**
+         * The slot moves on from sunrise to sunset, and to the next day's sunrise, at most this
+         * late.
+         */
+        private static final long REFRESH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(15);
+
+        SunriseSlot() {
+            super(SUNRISE);
+        }
+
+        @Override
+        int getTriggers() {
+            return TRIGGER_DATA | TRIGGER_DAY;
+        }
+
+        @Override
+        long getRefreshIntervalMs() {
+            return REFRESH_INTERVAL_MS;
+        }
+
+        @Override
+        void render(Canvas canvas, int width, int height, WatchFaceSlots slots, long nowMs) {
+            Context context = slots.getContext();
+            ForecastRingBuffer forecast = slots.getForecast();
+            float latitude = forecast.getLatitude();
+            float longitude = forecast.getLongitude();
+
+            int labelId = R.string.slot_sunrise;
+            String value = context.getString(R.string.slot_no_value);
+            if (!Float.isNaN(latitude) && !Float.isNaN(longitude)) {
+                int day = slots.getDay();
+                long[] events = {
+                        SunCalculator.getSunEventMs(day, latitude, longitude, true),
+                        SunCalculator.getSunEventMs(day, latitude, longitude, false),
+                        SunCalculator.getSunEventMs(day + 1, latitude, longitude, true)};
+                for (int i = 0; i < events.length; i++) {
+                    if (events[i] != SunCalculator.NO_EVENT && events[i] > nowMs) {
+                        labelId = i == 1 ? R.string.slot_sunset : R.string.slot_sunrise;
+                        value = DateFormat.getTimeFormat(context).format(new Date(events[i]));
+                        break;
+                    }
+                }
+            }
+            slots.drawLabelAndValue(canvas, width / 2f, height, context.getString(labelId),
+                    value);
+        }
+    }
+}
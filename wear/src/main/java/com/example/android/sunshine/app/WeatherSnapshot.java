@@ -0,0 +1,25 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+
+/**
+ * Immutable weather state shown by the watch face. It is built on the update worker and handed
+ * over to the UI thread as a whole, so the face never draws a mix of two payloads.
+ */
+final class WeatherSnapshot {
+
+    final String highestTemperature;
+    final String lowestTemperature;
+    final int weatherId;
+    final String iconKey;
+    final Bitmap weatherIcon;
+
+    WeatherSnapshot(String highestTemperature, String lowestTemperature, int weatherId,
+                    String iconKey, Bitmap weatherIcon) {
+        this.highestTemperature = highestTemperature;
+        this.lowestTemperature = lowestTemperature;
+        this.weatherId = weatherId;
+        this.iconKey = iconKey;
+        this.weatherIcon = weatherIcon;
+    }
+}
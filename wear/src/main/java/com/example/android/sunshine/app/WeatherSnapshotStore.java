@@ -0,0 +1,183 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the last weather snapshot shown by the face in a tiny binary file, so that a new engine
+ * can draw real data on its very first frame instead of placeholders.
+ * <p>
+ * The icon is stored as the raw pixels of the already scaled bitmap, which are copied back
+ * without decoding. Layout:
+ * <pre>
+ *   int    magic
+ *   byte   version
+ *   int    day              local date of the forecast, in days since the epoch
+ *   int    weather id
+ *   UTF    highest temperature
+ *   UTF    lowest temperature
+ *   UTF    icon key         empty when there is none
+ *   byte   icon config      0 when there is no icon
+ *   int    icon width, int icon height, then the icon pixels
+ * </pre>
+ * {@link #read()} is called on the UI thread when the engine is created, {@link #write(int,
+ * WeatherSnapshot)} on the update worker.
+ */
+class WeatherSnapshotStore {
+
+    private static final String TAG = WeatherSnapshotStore.class.getSimpleName();
+
+    static final String FILE_NAME = "weather_snapshot.bin";
+
+    private static final int MAGIC = 0x53554e32;
+    private static final int VERSION = 1;
+
+    private static final int CONFIG_NONE = 0;
+    private static final int CONFIG_ARGB_8888 = 1;
+    private static final int CONFIG_RGB_565 = 2;
+
+    private final File file;
+
+    /**
+     * Day of the snapshot returned by the last {@link #read()}.
+     */
+    private int day;
+
+    WeatherSnapshotStore(File filesDir) {
+        this.file = new File(filesDir, FILE_NAME);
+    }
+
+    /**
+     * Returns the last stored snapshot, or null if there is none or it cannot be read. A file
+     * that cannot be read is deleted, so that it does not fail every start of the face.
+     */
+    WeatherSnapshot read() {
+        if (!file.exists()) {
+            return null;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            DataInputStream inputStream = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (inputStream.readInt() != MAGIC || inputStream.readByte() != VERSION) {
+                    return null;
+                }
+                int snapshotDay = inputStream.readInt();
+                int weatherId = inputStream.readInt();
+                String highestTemperature = inputStream.readUTF();
+                String lowestTemperature = inputStream.readUTF();
+                String iconKey = inputStream.readUTF();
+                Bitmap weatherIcon = readIcon(inputStream);
+
+                day = snapshotDay;
+                Log.d(TAG, "Read weather snapshot in "
+                        + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us");
+                return new WeatherSnapshot(highestTemperature, lowestTemperature, weatherId,
+                        iconKey.isEmpty() ? null : iconKey, weatherIcon);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading the weather snapshot", e);
+            if (!file.delete()) {
+                Log.e(TAG, "Could not delete the weather snapshot");
+            }
+            return null;
+        }
+    }
+
+    int getDay() {
+        return day;
+    }
+
+    /**
+     * Replaces the stored snapshot. A crash while writing leaves the previous one in place.
+     */
+    void write(int day, WeatherSnapshot snapshot) {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream outputStream = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            try {
+                outputStream.writeInt(MAGIC);
+                outputStream.writeByte(VERSION);
+                outputStream.writeInt(day);
+                outputStream.writeInt(snapshot.weatherId);
+                outputStream.writeUTF(snapshot.highestTemperature);
+                outputStream.writeUTF(snapshot.lowestTemperature);
+                outputStream.writeUTF(snapshot.iconKey == null ? "" : snapshot.iconKey);
+                writeIcon(outputStream, snapshot.weatherIcon);
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing the weather snapshot", e);
+            return;
+        }
+        if (!temporaryFile.renameTo(file)) {
+            Log.e(TAG, "Could not store the weather snapshot");
+        }
+    }
+
+    private static Bitmap readIcon(DataInputStream inputStream) throws IOException {
+        Bitmap.Config config;
+        int bytesPerPixel;
+        switch (inputStream.readByte()) {
+            case CONFIG_ARGB_8888:
+                config = Bitmap.Config.ARGB_8888;
+                bytesPerPixel = 4;
+                break;
+            case CONFIG_RGB_565:
+                config = Bitmap.Config.RGB_565;
+                bytesPerPixel = 2;
+                break;
+            default:
+                return null;
+        }
+        int width = inputStream.readInt();
+        int height = inputStream.readInt();
+        // The pixels are the rest of the file, which a file stream knows the size of.
+        if (width <= 0 || height <= 0
+                || (long) width * height * bytesPerPixel > inputStream.available()) {
+            throw new IOException("Corrupt weather icon of " + width + "x" + height);
+        }
+        Bitmap icon = Bitmap.createBitmap(width, height, config);
+        byte[] pixels = new byte[icon.getByteCount()];
+        inputStream.readFully(pixels);
+        icon.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+        return icon;
+    }
+
+    private static void writeIcon(DataOutputStream outputStream, Bitmap icon)
+            throws IOException {
+        int config = CONFIG_NONE;
+        if (icon != null && !icon.isRecycled()) {
+            if (icon.getConfig() == Bitmap.Config.ARGB_8888) {
+                config = CONFIG_ARGB_8888;
+            } else if (icon.getConfig() == Bitmap.Config.RGB_565) {
+                config = CONFIG_RGB_565;
+            }
+        }
+        outputStream.writeByte(config);
+        if (config == CONFIG_NONE) {
+            return;
+        }
+        ByteBuffer pixels = ByteBuffer.allocate(icon.getByteCount());
+        icon.copyPixelsToBuffer(pixels);
+        outputStream.writeInt(icon.getWidth());
+        outputStream.writeInt(icon.getHeight());
+        outputStream.write(pixels.array(), 0, pixels.position());
+    }
+}